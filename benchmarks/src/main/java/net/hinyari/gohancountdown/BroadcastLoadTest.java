@@ -0,0 +1,223 @@
+package net.hinyari.gohancountdown;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * BroadcastServerの負荷試験
+ * 接続数を段階的に増やしながら1Hzと10Hzで配信し、何クライアントまで配信が間に合うかを調べる
+ *
+ * java -cp benchmarks/target/benchmarks.jar net.hinyari.gohancountdown.BroadcastLoadTest [秒数] [接続数...]
+ */
+public class BroadcastLoadTest
+{
+    private static final byte[] REQUEST = "GET /events HTTP/1.1\r\nHost: localhost\r\n\r\n"
+            .getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] NOW_KEY = "\"now\":".getBytes(StandardCharsets.US_ASCII);
+
+    // 負の値にならないようにnanoTimeの起点をずらす
+    private static final long ORIGIN = System.nanoTime() - 1;
+
+    // 配信できたとみなす到達率
+    private static final double REQUIRED_DELIVERY = 0.99;
+
+    private static final class Receiver
+    {
+        final ByteBuffer buffer = ByteBuffer.allocate(4096);
+        boolean headerDone;
+        long frames;
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        int[] levels = args.length > 1
+                ? Arrays.stream(args, 1, args.length).mapToInt(Integer::parseInt).toArray()
+                : new int[]{100, 500, 1000, 2000, 5000, 8000};
+
+        for (int hz : new int[]{1, 10}) {
+            int sustained = 0;
+            for (int clients : levels) {
+                Result result = run(clients, hz, seconds);
+                System.out.println(String.format("%2dHz %6d clients: delivered %.2f%% p50=%dms p99=%dms max=%dms",
+                        hz, clients, result.delivery() * 100, result.percentile(0.5), result.percentile(0.99),
+                        result.percentile(1.0)));
+                if (result.delivery() < REQUIRED_DELIVERY || result.percentile(0.99) >= 1000 / hz) {
+                    break;
+                }
+                sustained = clients;
+            }
+            System.out.println(hz + "Hzで配信できた接続数: " + sustained);
+        }
+    }
+
+    private static final class Result
+    {
+        final long expected;
+        final long received;
+        final long[] latencies;
+        final int count;
+
+        Result(long expected, long received, long[] latencies, int count)
+        {
+            this.expected = expected;
+            this.received = received;
+            this.latencies = latencies;
+            this.count = count;
+        }
+
+        double delivery()
+        {
+            return expected == 0 ? 0 : (double) received / expected;
+        }
+
+        long percentile(double p)
+        {
+            if (count == 0) {
+                return -1;
+            }
+            long[] sorted = Arrays.copyOf(latencies, count);
+            Arrays.sort(sorted);
+            int index = (int) Math.ceil(p * count) - 1;
+            return sorted[Math.max(0, Math.min(count - 1, index))];
+        }
+    }
+
+    private static Result run(int clients, int hz, int seconds) throws IOException, InterruptedException
+    {
+        BroadcastServer server = new BroadcastServer(new InetSocketAddress("127.0.0.1", 0));
+        server.start();
+        Selector selector = Selector.open();
+        List<SocketChannel> channels = new ArrayList<>();
+        long[] latencies = new long[1 << 20];
+        int latencyCount = 0;
+        long received = 0;
+        try {
+            // 接続してリクエストを送る
+            for (int i = 0; i < clients; i++) {
+                SocketChannel channel = SocketChannel.open(server.getAddress());
+                channel.write(ByteBuffer.wrap(REQUEST));
+                channel.configureBlocking(false);
+                channel.register(selector, SelectionKey.OP_READ, new Receiver());
+                channels.add(channel);
+            }
+            while (server.getStreamCount() < clients) {
+                drain(selector, 10, null, 0);
+            }
+
+            long period = 1_000_000_000L / hz;
+            int ticks = seconds * hz;
+            long next = System.nanoTime();
+            for (int tick = 0; tick < ticks; tick++) {
+                // 受信しながら次の配信時刻を待つ
+                while (System.nanoTime() < next) {
+                    long wait = Math.max(1, (next - System.nanoTime()) / 1_000_000L);
+                    latencyCount = drain(selector, wait, latencies, latencyCount);
+                }
+                // nowには配信した時刻(ナノ秒)を入れておき、受信側で遅延を求める。目標も同じ単位で100秒後にする
+                long sent = System.nanoTime() - ORIGIN;
+                server.onTick(new TickSnapshot(sent, ZoneId.systemDefault(), sent + 100_000_000_000L, 100, 100, 100,
+                        null, null, -1, null, null));
+                next += period;
+            }
+            // 最後の配信が届くのを待つ
+            long end = System.nanoTime() + 1_000_000_000L;
+            while (System.nanoTime() < end) {
+                latencyCount = drain(selector, 10, latencies, latencyCount);
+            }
+            for (SelectionKey key : selector.keys()) {
+                received += ((Receiver) key.attachment()).frames;
+            }
+            return new Result((long) ticks * clients, received, latencies, latencyCount);
+        } finally {
+            for (SocketChannel channel : channels) {
+                channel.close();
+            }
+            selector.close();
+            server.close();
+        }
+    }
+
+    private static int drain(Selector selector, long timeout, long[] latencies, int count) throws IOException
+    {
+        selector.select(timeout);
+        Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+        while (it.hasNext()) {
+            SelectionKey key = it.next();
+            it.remove();
+            Receiver receiver = (Receiver) key.attachment();
+            SocketChannel channel = (SocketChannel) key.channel();
+            if (channel.read(receiver.buffer) < 0) {
+                key.cancel();
+                continue;
+            }
+            long now = System.nanoTime() - ORIGIN;
+            count = parse(receiver, now, latencies, count);
+        }
+        return count;
+    }
+
+    /**
+     * 受信したバイト列から完結したイベントを取り出して遅延を記録する
+     */
+    private static int parse(Receiver receiver, long now, long[] latencies, int count)
+    {
+        ByteBuffer buffer = receiver.buffer;
+        buffer.flip();
+        int start = 0;
+        int limit = buffer.limit();
+        for (int i = 1; i < limit; i++) {
+            if (!receiver.headerDone) {
+                if (i >= 3 && buffer.get(i - 3) == '\r' && buffer.get(i - 2) == '\n'
+                        && buffer.get(i - 1) == '\r' && buffer.get(i) == '\n') {
+                    receiver.headerDone = true;
+                    start = i + 1;
+                }
+                continue;
+            }
+            if (buffer.get(i - 1) == '\n' && buffer.get(i) == '\n') {
+                long sent = parseNow(buffer, start, i);
+                receiver.frames++;
+                if (latencies != null && sent > 0 && count < latencies.length) {
+                    latencies[count++] = (now - sent) / 1_000_000L;
+                }
+                start = i + 1;
+            }
+        }
+        buffer.position(start);
+        buffer.compact();
+        return count;
+    }
+
+    private static long parseNow(ByteBuffer buffer, int from, int to)
+    {
+        outer:
+        for (int i = from; i + NOW_KEY.length < to; i++) {
+            for (int j = 0; j < NOW_KEY.length; j++) {
+                if (buffer.get(i + j) != NOW_KEY[j]) {
+                    continue outer;
+                }
+            }
+            long value = 0;
+            for (int k = i + NOW_KEY.length; k < to; k++) {
+                byte b = buffer.get(k);
+                if (b < '0' || b > '9') {
+                    break;
+                }
+                value = value * 10 + (b - '0');
+            }
+            return value;
+        }
+        return -1;
+    }
+}
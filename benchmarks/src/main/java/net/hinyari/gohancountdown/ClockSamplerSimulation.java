@@ -0,0 +1,143 @@
+package net.hinyari.gohancountdown;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 代わりの時刻源を使ってClockSamplerとOffsetSelectorの選び方と失敗の扱いを確かめる
+ * 時刻源ごとに決まったオフセットを返す、失敗する、締め切りまで応答しない、のどれかを決めておき、
+ * 選ばれたオフセット、外れ値として除かれた時刻源、合意が取れない場合の例外を確かめる
+ * 確認に失敗した場合は終了コード1で終わる
+ *
+ * java -cp benchmarks/target/benchmarks.jar net.hinyari.gohancountdown.ClockSamplerSimulation
+ */
+public class ClockSamplerSimulation
+{
+    // レベルの設定が消えないように参照を持っておく
+    private static final Logger LOGGER = Logger.getLogger("net.hinyari.gohancountdown");
+    // 失敗する時刻源
+    private static final long FAIL = Long.MIN_VALUE;
+    // 締め切りまで応答しない時刻源
+    private static final long HANG = Long.MAX_VALUE;
+    private static final long DELAY = 20;
+    private static final long DEADLINE = 300;
+
+    private static int failures;
+
+    /**
+     * 名前に決めた振る舞いを持つ時刻源。名前は "s<番号>"
+     */
+    private static final class StandInSource extends SntpTimeSource
+    {
+        private final long[] offsets;
+
+        StandInSource(long... offsets)
+        {
+            super(names(offsets.length), 100);
+            this.offsets = offsets;
+        }
+
+        @Override
+        public TimeSample query(String server) throws IOException
+        {
+            long offset = offsets[Integer.parseInt(server.substring(1))];
+            if (offset == FAIL) {
+                throw new IOException(server + " は応答しません");
+            }
+            if (offset == HANG) {
+                try {
+                    Thread.sleep(DEADLINE * 10);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                throw new IOException(server + " は締め切りに間に合いませんでした");
+            }
+            return new TimeSample(server, offset, DELAY, System.currentTimeMillis());
+        }
+
+        private static List<String> names(int n)
+        {
+            List<String> names = new ArrayList<>();
+            for (int i = 0; i < n; i++) {
+                names.add("s" + i);
+            }
+            return names;
+        }
+    }
+
+    public static void main(String[] args)
+    {
+        LOGGER.setLevel(Level.OFF);
+
+        expectOffset("3つとも一致", new long[]{100, 105, 95}, 100, 0);
+        expectOffset("1つだけ外れている", new long[]{100, 104, 5000}, 102, 1);
+        expectOffset("1つ応答しない", new long[]{100, 104, FAIL}, 102, 0);
+        expectOffset("1つ締め切りに間に合わない", new long[]{100, 104, HANG}, 102, 0);
+        expectOffset("5つのうち1つが外れ、1つ応答しない", new long[]{100, 102, 98, -3000, FAIL}, 100, 1);
+        // 応答した中では過半数でも、問い合わせた数の過半数に届かなければ合意としない
+        expectFailure("3つのうち1つしか応答しない", new long[]{100, FAIL, FAIL});
+        expectFailure("3つのうち1つしか間に合わない", new long[]{100, HANG, HANG});
+        expectFailure("4つのうち2つずつに分かれる", new long[]{100, 102, 5000, 5002});
+        expectFailure("5つのうち一致する2つ以外は応答しない", new long[]{100, 102, 5000, FAIL, HANG});
+        expectFailure("すべて応答しない", new long[]{FAIL, FAIL, FAIL});
+
+        try {
+            OffsetSelector.select(Collections.singletonList(new TimeSample("s0", 0, 0, 0)), 0);
+            fail("問い合わせた数より多い結果を受け付けました");
+        } catch (IllegalArgumentException e) {
+            System.out.println("OK   問い合わせた数より多い結果は受け付けない");
+        }
+
+        if (failures > 0) {
+            System.out.println("失敗 " + failures + "件");
+            System.exit(1);
+        }
+        System.out.println("OK");
+        System.exit(0);
+    }
+
+    private static void expectOffset(String name, long[] offsets, long expected, int falsetickers)
+    {
+        ClockSampler sampler = new ClockSampler(new StandInSource(offsets), DEADLINE);
+        try {
+            TimeSample sample = sampler.sample();
+            // 区間の半径の丸めで1msずれることがある
+            if (Math.abs(sample.getOffset() - expected) > 1) {
+                fail(name + ": オフセットが " + sample.getOffset() + " (期待値 " + expected + ")");
+                return;
+            }
+            long rejected = sampler.getStatistics().stream().filter(s -> s.getFalsetickers() > 0).count();
+            if (rejected != falsetickers) {
+                fail(name + ": 外れ値として除いた数が " + rejected + " (期待値 " + falsetickers + ")");
+                return;
+            }
+            System.out.println("OK   " + name + ": " + sample);
+        } catch (IOException e) {
+            fail(name + ": 合意が取れませんでした " + e.getMessage());
+        } finally {
+            sampler.shutdown();
+        }
+    }
+
+    private static void expectFailure(String name, long[] offsets)
+    {
+        ClockSampler sampler = new ClockSampler(new StandInSource(offsets), DEADLINE);
+        try {
+            fail(name + ": 合意が取れないはずが " + sampler.sample() + " を選びました");
+        } catch (IOException e) {
+            System.out.println("OK   " + name + ": " + e.getMessage());
+        } finally {
+            sampler.shutdown();
+        }
+    }
+
+    private static void fail(String message)
+    {
+        failures++;
+        System.out.println("NG   " + message);
+    }
+}
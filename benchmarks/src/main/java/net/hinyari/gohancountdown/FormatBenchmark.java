@@ -0,0 +1,80 @@
+package net.hinyari.gohancountdown;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 表示文字列の組み立て
+ * legacyFormatは以前のreloadDisplay()と同じくDateTimeFormatterとString.formatを毎回使う
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FormatBenchmark
+{
+    private final DigitFormatter formatter = new DigitFormatter();
+    private ZoneId zone;
+    private long now;
+    private long seconds;
+    private TickSnapshot snapshot;
+
+    @Setup
+    public void setup()
+    {
+        zone = ZoneId.systemDefault();
+        now = System.currentTimeMillis();
+        seconds = 31_536_000L;
+        snapshot = CountDownTimer.compute(CountDownTimer.createEngine(), now, "ntp.nict.jp", null, 10, "12ms");
+    }
+
+    @Benchmark
+    public void digitFormatter(Blackhole bh)
+    {
+        now += 1000;
+        seconds--;
+        bh.consume(formatter.clear().appendClock(now, zone).length());
+        bh.consume(formatter.clear().appendPadded(seconds / 86400, 3).length());
+        bh.consume(formatter.clear().appendPadded(seconds / 3600 % 24, 2).length());
+        bh.consume(formatter.clear().appendPadded(seconds / 60 % 60, 2).length());
+        bh.consume(formatter.clear().appendPadded(seconds % 60, 2).length());
+        bh.consume(formatter.clear().append(seconds).length());
+    }
+
+    @Benchmark
+    public void legacyFormat(Blackhole bh)
+    {
+        now += 1000;
+        seconds--;
+        LocalDateTime ldt = LocalDateTime.ofInstant(Instant.ofEpochMilli(now), ZoneId.systemDefault());
+        bh.consume(DateTimeFormatter.ofPattern("yyyy/MM/dd HH:mm:ss").format(ldt));
+        bh.consume(String.format("%03d", seconds / 86400));
+        bh.consume(String.format("%02d", seconds / 3600 - ((seconds / 86400 * 24))));
+        bh.consume(String.format("%02d", (seconds / 60) % 60));
+        bh.consume(String.format("%02d", seconds % 60));
+        bh.consume(String.valueOf(seconds));
+    }
+
+    @Benchmark
+    public byte[] snapshotJson()
+    {
+        return SnapshotJson.encode(snapshot);
+    }
+}
@@ -0,0 +1,95 @@
+package net.hinyari.gohancountdown;
+
+import org.apache.commons.net.ntp.NtpV3Impl;
+import org.apache.commons.net.ntp.NtpV3Packet;
+import org.apache.commons.net.ntp.TimeInfo;
+import org.apache.commons.net.ntp.TimeStamp;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 時刻源の応答の解析
+ * jsoupJstは以前のgetNTPTime()と同じくHTMLをDOMにしてから文字列を組み立てて解析する
+ * streamingJstとhttpDateは今のHTTPの時刻源と同じく、受信したバイト列のまま解析する
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ParseBenchmark
+{
+    // NICTのjstの応答
+    static final String JST_RESPONSE = "<HTML>\n<HEAD>\n<TITLE>NICT JST</TITLE>\n</HEAD>\n"
+            + "<BODY>\n1545663600.123\n</BODY>\n</HTML>\n";
+    static final byte[] JST_BYTES = JST_RESPONSE.getBytes(StandardCharsets.US_ASCII);
+    static final byte[] DATE_BYTES = "Mon, 24 Dec 2018 15:00:00 GMT".getBytes(StandardCharsets.US_ASCII);
+
+    private byte[] ntpResponse;
+    private long returnTime;
+
+    @Setup
+    public void setup()
+    {
+        long now = System.currentTimeMillis();
+        NtpV3Impl packet = new NtpV3Impl();
+        packet.setMode(NtpV3Packet.MODE_SERVER);
+        packet.setVersion(NtpV3Packet.VERSION_3);
+        packet.setStratum(1);
+        packet.setOriginateTimeStamp(TimeStamp.getNtpTime(now));
+        packet.setReceiveTimeStamp(TimeStamp.getNtpTime(now + 3));
+        packet.setTransmitTime(TimeStamp.getNtpTime(now + 4));
+        DatagramPacket datagram = packet.getDatagramPacket();
+        ntpResponse = Arrays.copyOf(datagram.getData(), datagram.getLength());
+        returnTime = now + 8;
+    }
+
+    @Benchmark
+    public long jsoupJst()
+    {
+        Document document = Jsoup.parse(JST_RESPONSE);
+        StringBuilder sb = new StringBuilder();
+        for (Element element : document.body().getAllElements()) {
+            sb.append(element.ownText()).append("\n");
+        }
+        return Long.valueOf(sb.toString().replace(".", "").replace("\n", ""));
+    }
+
+    @Benchmark
+    public long streamingJst() throws IOException
+    {
+        return JstTimeSource.parseJst(JST_BYTES, 0, JST_BYTES.length);
+    }
+
+    @Benchmark
+    public long httpDate() throws IOException
+    {
+        return HttpDateTimeSource.parseHttpDate(DATE_BYTES, 0, DATE_BYTES.length);
+    }
+
+    @Benchmark
+    public TimeSample sntpPacket() throws IOException
+    {
+        NtpV3Impl packet = new NtpV3Impl();
+        packet.setDatagramPacket(new DatagramPacket(ntpResponse, ntpResponse.length));
+        return SntpTimeSource.toSample("ntp.nict.jp", new TimeInfo(packet, returnTime), 0L);
+    }
+}
@@ -0,0 +1,194 @@
+package net.hinyari.gohancountdown;
+
+import org.apache.commons.net.ntp.NtpV3Impl;
+import org.apache.commons.net.ntp.NtpV3Packet;
+import org.apache.commons.net.ntp.TimeStamp;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketException;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * ループバックで動くNTPサーバを立て、SntpTimeSourceが求めるオフセットと遅延を確かめる
+ * サーバは決まった量だけずらした時計で応答し、行きと帰りの通信遅延とサーバ内の処理時間を眠って再現する
+ * 処理時間は遅延から除かれ、行きと帰りが同じならオフセットはずらした量になるはず
+ * 応答しない、拒否する(Kiss-o'-Death)、同期していないサーバでは例外になることも確かめる
+ * 確認に失敗した場合は終了コード1で終わる
+ *
+ * java -cp benchmarks/target/benchmarks.jar net.hinyari.gohancountdown.SntpLoopbackTest
+ */
+public class SntpLoopbackTest
+{
+    // レベルの設定が消えないように参照を持っておく
+    private static final Logger LOGGER = Logger.getLogger("net.hinyari.gohancountdown");
+    private static final int TIMEOUT = 300;
+    // ミリ秒単位のタイムスタンプと眠りの揺らぎの分
+    private static final long TOLERANCE = 5;
+
+    private static int failures;
+
+    /**
+     * 1つの問い合わせにだけ答えるNTPサーバ
+     */
+    private static final class Responder implements AutoCloseable
+    {
+        private final DatagramSocket socket;
+        private final Thread thread;
+        private final long skew;
+        private final long oneWay;
+        private final long hold;
+        private final int stratum;
+        private final int leap;
+        private final boolean drop;
+
+        /**
+         * @param skew    サーバの時計のずれ(ms)
+         * @param oneWay  行きと帰りそれぞれの通信遅延(ms)
+         * @param hold    受信から送信までのサーバ内の処理時間(ms)
+         * @param stratum 0ならKiss-o'-Deathとして拒否する
+         * @param leap    閏秒指示子。LI_ALARM_CONDITIONなら同期していない
+         * @param drop    trueなら応答しない
+         */
+        Responder(long skew, long oneWay, long hold, int stratum, int leap, boolean drop) throws SocketException
+        {
+            this.socket = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+            this.skew = skew;
+            this.oneWay = oneWay;
+            this.hold = hold;
+            this.stratum = stratum;
+            this.leap = leap;
+            this.drop = drop;
+            this.thread = new Thread(this::serve, "SntpResponder");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        String getServer()
+        {
+            return "127.0.0.1:" + socket.getLocalPort();
+        }
+
+        private void serve()
+        {
+            try {
+                NtpV3Packet request = new NtpV3Impl();
+                DatagramPacket in = request.getDatagramPacket();
+                socket.receive(in);
+                if (drop) {
+                    return;
+                }
+                sleep(oneWay);
+                TimeStamp received = TimeStamp.getNtpTime(System.currentTimeMillis() + skew);
+                sleep(hold);
+
+                NtpV3Packet response = new NtpV3Impl();
+                response.setVersion(NtpV3Packet.VERSION_3);
+                response.setMode(NtpV3Packet.MODE_SERVER);
+                response.setLeapIndicator(leap);
+                response.setStratum(stratum);
+                response.setReferenceId(stratum == 0 ? 0x52415445 : 0x7f000001);
+                response.setOriginateTimeStamp(new TimeStamp(request.getTransmitTimeStamp().ntpValue()));
+                response.setReceiveTimeStamp(received);
+                response.setReferenceTime(received);
+                response.setTransmitTime(TimeStamp.getNtpTime(System.currentTimeMillis() + skew));
+                DatagramPacket out = response.getDatagramPacket();
+                out.setSocketAddress(in.getSocketAddress());
+                sleep(oneWay);
+                socket.send(out);
+            } catch (IOException e) {
+                // closeで止めた
+            }
+        }
+
+        @Override
+        public void close()
+        {
+            socket.close();
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException
+    {
+        LOGGER.setLevel(Level.OFF);
+        SntpTimeSource source = new SntpTimeSource(Collections.singletonList("localhost"), TIMEOUT);
+
+        expectSample(source, "進んだ時計", 1500, 0, 0);
+        expectSample(source, "遅れた時計", -2500, 0, 0);
+        // 行きと帰りに20msずつかかり、サーバ内で30ms待つ。遅延は処理時間を除いた40ms
+        expectSample(source, "通信遅延とサーバの処理時間", 700, 20, 30);
+        expectFailure(source, "応答しない", new Responder(0, 0, 0, 2, NtpV3Packet.LI_NO_WARNING, true), true);
+        expectFailure(source, "Kiss-o'-Death",
+                new Responder(0, 0, 0, 0, NtpV3Packet.LI_NO_WARNING, false), false);
+        expectFailure(source, "同期していない",
+                new Responder(0, 0, 0, 2, NtpV3Packet.LI_ALARM_CONDITION, false), false);
+
+        if (failures > 0) {
+            System.out.println("失敗 " + failures + "件");
+            System.exit(1);
+        }
+        System.out.println("OK");
+        System.exit(0);
+    }
+
+    private static void expectSample(SntpTimeSource source, String name, long skew, long oneWay, long hold)
+    {
+        try (Responder responder = new Responder(skew, oneWay, hold, 2, NtpV3Packet.LI_NO_WARNING, false)) {
+            TimeSample sample = source.query(responder.getServer());
+            long expectedDelay = oneWay * 2;
+            // 眠りは指定より長くなることはあっても短くはならないので、遅延は下限を厳しく見る
+            if (Math.abs(sample.getOffset() - skew) > TOLERANCE) {
+                fail(name + ": オフセットが " + sample.getOffset() + "ms (期待値 " + skew + "ms)");
+            } else if (sample.getDelay() < expectedDelay - 1 || sample.getDelay() > expectedDelay + TOLERANCE * 2) {
+                fail(name + ": 遅延が " + sample.getDelay() + "ms (期待値 " + expectedDelay + "ms)");
+            } else {
+                System.out.println("OK   " + name + ": " + sample);
+            }
+        } catch (IOException e) {
+            fail(name + ": 時刻を取得できませんでした " + e);
+        }
+    }
+
+    private static void expectFailure(SntpTimeSource source, String name, Responder responder, boolean timeout)
+    {
+        long start = System.nanoTime();
+        try (Responder r = responder) {
+            fail(name + ": 例外になるはずが " + source.query(r.getServer()) + " を返しました");
+        } catch (IOException e) {
+            long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            // タイムアウトは指定した時間で諦めること、それ以外は待たずに失敗すること
+            if (timeout ? elapsed < TIMEOUT - 1 || elapsed > TIMEOUT * 3 : elapsed >= TIMEOUT) {
+                fail(name + ": 失敗するまでに " + elapsed + "ms かかりました (タイムアウト " + TIMEOUT + "ms)");
+            } else {
+                System.out.println("OK   " + name + ": " + elapsed + "ms " + e);
+            }
+        }
+    }
+
+    private static void sleep(long millis)
+    {
+        if (millis > 0) {
+            try {
+                Thread.sleep(millis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static void fail(String message)
+    {
+        failures++;
+        System.out.println("NG   " + message);
+    }
+}
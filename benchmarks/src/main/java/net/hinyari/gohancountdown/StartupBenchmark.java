@@ -0,0 +1,115 @@
+package net.hinyari.gohancountdown;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 組み立てたjarを何回も起動し、JVMを起動してから最初の表示までの時間を測る
+ * 子のプロセスは -Dgohancountdown.startup.exit=true で起動し、最初の表示で時間を出して終了する
+ * プロセスを起動してからその行を受け取るまでの時間と、子が測ったJVMの起動からとmain()からの時間を出す
+ * jarと同じ名前の.jsa(mvn -Pappcds package で作る)があれば、AppCDSを使った場合も測る
+ *
+ * java -cp benchmarks/target/benchmarks.jar net.hinyari.gohancountdown.StartupBenchmark target/GohanCountDown-&lt;version&gt;.jar [回数] [引数...]
+ */
+public class StartupBenchmark
+{
+    private static final String PREFIX = "startup ";
+
+    public static void main(String[] args) throws IOException, InterruptedException
+    {
+        if (args.length < 1) {
+            System.out.println("使い方: StartupBenchmark <jar> [回数] [アプリの引数...]");
+            System.exit(2);
+        }
+        File jar = new File(args[0]);
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        List<String> appArgs = args.length > 2 ? Arrays.asList(args).subList(2, args.length)
+                : new ArrayList<>();
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+
+        run("default", command(java, null, jar, appArgs), runs);
+        File archive = new File(jar.getPath().replaceAll("\\.jar$", ".jsa"));
+        if (archive.isFile()) {
+            run("appcds", command(java, "-XX:SharedArchiveFile=" + archive.getPath(), jar, appArgs), runs);
+        } else {
+            System.out.println(archive + " がないのでAppCDSは測りません");
+        }
+    }
+
+    private static List<String> command(String java, String option, File jar, List<String> appArgs)
+    {
+        List<String> command = new ArrayList<>();
+        command.add(java);
+        if (option != null) {
+            command.add(option);
+        }
+        command.add("-Dgohancountdown.startup.exit=true");
+        // 画面がない環境では配信だけで起動するので、ポートがぶつからないようにする
+        command.add("-Dgohancountdown.broadcast.port=0");
+        command.add("-jar");
+        command.add(jar.getPath());
+        command.addAll(appArgs);
+        return command;
+    }
+
+    private static void run(String name, List<String> command, int runs) throws IOException, InterruptedException
+    {
+        // 最初の1回はファイルのキャッシュを温めるために捨てる
+        launch(command);
+        long[] wall = new long[runs];
+        long[] fromJvm = new long[runs];
+        long[] fromMain = new long[runs];
+        for (int i = 0; i < runs; i++) {
+            long[] result = launch(command);
+            wall[i] = result[0];
+            fromJvm[i] = result[1];
+            fromMain[i] = result[2];
+        }
+        System.out.println(name + " (" + runs + "回)");
+        print("プロセスの起動から", wall);
+        print("JVMの起動から", fromJvm);
+        print("main()から", fromMain);
+    }
+
+    /**
+     * @return プロセスの起動から、子が測ったJVMの起動から、main()からの時間(ms)
+     */
+    private static long[] launch(List<String> command) throws IOException, InterruptedException
+    {
+        ProcessBuilder builder = new ProcessBuilder(command).redirectErrorStream(true);
+        long start = System.nanoTime();
+        Process process = builder.start();
+        long[] result = null;
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (result == null && line.startsWith(PREFIX)) {
+                    long wall = (System.nanoTime() - start) / 1_000_000L;
+                    String[] parts = line.substring(PREFIX.length()).split(" ");
+                    result = new long[]{wall, Long.parseLong(parts[0]), Long.parseLong(parts[1])};
+                }
+            }
+        }
+        int status = process.waitFor();
+        if (result == null) {
+            throw new IllegalStateException("最初の表示の時間が出力されませんでした(終了コード " + status + ")");
+        }
+        return result;
+    }
+
+    private static void print(String label, long[] values)
+    {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        System.out.println(String.format("  min %4dms  median %4dms  p90 %4dms  max %4dms  %s", sorted[0],
+                sorted[sorted.length / 2], sorted[(int) Math.ceil(sorted.length * 0.9) - 1], sorted[sorted.length - 1],
+                label));
+    }
+}
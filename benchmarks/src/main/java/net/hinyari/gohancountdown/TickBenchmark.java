@@ -0,0 +1,68 @@
+package net.hinyari.gohancountdown;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 1回のtickでカウントダウンを計算する処理
+ * legacyTickは以前のreloadDisplay()と同じく毎回日時の文字列を解析する
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TickBenchmark
+{
+    private CountDownEngine engine;
+    private long now;
+
+    @Setup
+    public void setup()
+    {
+        engine = CountDownTimer.createEngine();
+        now = LocalDateTime.of(2018, 12, 31, 23, 0).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    @Benchmark
+    public TickSnapshot engineTick()
+    {
+        now += 1000;
+        return CountDownTimer.compute(engine, now, "ntp.nict.jp", null, 10, "12ms");
+    }
+
+    @Benchmark
+    public long legacyTick()
+    {
+        now += 1000;
+        Instant nowTimeInstance = Instant.ofEpochMilli(now);
+        Instant firstDayof2018 = LocalDateTime.parse("2018-01-01T00:00:00", DateTimeFormatter.ISO_DATE_TIME)
+                .toInstant(ZoneId.systemDefault().getRules().getOffset(Instant.EPOCH));
+        Instant firstDayof2019 = LocalDateTime.parse("2019-01-01T00:00:00", DateTimeFormatter.ISO_DATE_TIME)
+                .toInstant(ZoneId.systemDefault().getRules().getOffset(Instant.EPOCH));
+        Instant firstDayof2020 = LocalDateTime.parse("2020-01-01T00:00:00", DateTimeFormatter.ISO_DATE_TIME)
+                .toInstant(ZoneId.systemDefault().getRules().getOffset(Instant.EPOCH));
+        Duration durationunt2019 = Duration.between(nowTimeInstance, firstDayof2019);
+        Duration durationfrom2019 = Duration.between(firstDayof2019, nowTimeInstance);
+        Duration durationfrom2018 = Duration.between(firstDayof2018, nowTimeInstance);
+        Duration durationunt2020 = Duration.between(nowTimeInstance, firstDayof2020);
+        return durationunt2019.getSeconds() + durationfrom2019.getSeconds()
+                + durationfrom2018.getSeconds() + durationunt2020.getSeconds();
+    }
+}
@@ -0,0 +1,135 @@
+package net.hinyari.gohancountdown;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Instant;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * 予定の数を変えたときのTimingWheelの処理時間
+ * 予定は30日先までにばらけさせ、発火した予定はまた30日以内に入れ直して数を一定に保つ
+ * wheelChurnは1回あたり平均1件が発火するように時計を進める。登録、下ろし直し、発火を合わせた1件あたりの時間になる
+ * wheelTickは10ms(1tick)ずつ進める。EventSchedulerが起きるたびにかかる時間で、発火の遅れの上限に効く
+ * wheelScheduleCancelは登録してすぐ取り消す
+ * heapChurnとscanChurnは比較用に、同じ進め方をPriorityQueueと全件の走査で行う
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TimingWheelBenchmark
+{
+    private static final long START = Instant.parse("2018-12-01T00:00:00Z").toEpochMilli();
+    private static final long HORIZON = 30 * 86_400_000L;
+    private static final long TICK = EventScheduler.DEFAULT_TICK;
+
+    @Param({"10", "1000", "100000"})
+    public int events;
+
+    private TimingWheel<Object> wheel;
+    private PriorityQueue<Long> heap;
+    private long[] deadlines;
+    // 平均1件が発火する間隔
+    private long step;
+    private long now;
+    private long seed = 0x9E3779B97F4A7C15L;
+    private long fired;
+    private final Object event = new Object();
+    private final Consumer<TimingWheel.Timeout<Object>> reschedule = t ->
+    {
+        fired++;
+        wheel.schedule(now + span(), event);
+    };
+
+    @Setup
+    public void setup()
+    {
+        now = START;
+        step = Math.max(1, HORIZON / 2 / events);
+        wheel = new TimingWheel<>(TICK, START);
+        heap = new PriorityQueue<>(events);
+        deadlines = new long[events];
+        for (int i = 0; i < events; i++) {
+            long deadline = START + span();
+            wheel.schedule(deadline, event);
+            heap.add(deadline);
+            deadlines[i] = deadline;
+        }
+    }
+
+    @Benchmark
+    public long wheelChurn()
+    {
+        now += step;
+        wheel.advance(now, reschedule);
+        return fired;
+    }
+
+    @Benchmark
+    public long wheelTick()
+    {
+        now += TICK;
+        wheel.advance(now, reschedule);
+        return fired;
+    }
+
+    @Benchmark
+    public boolean wheelScheduleCancel()
+    {
+        return wheel.cancel(wheel.schedule(now + span(), event));
+    }
+
+    @Benchmark
+    public long heapChurn()
+    {
+        now += step;
+        Long head;
+        while ((head = heap.peek()) != null && head <= now) {
+            heap.poll();
+            fired++;
+            heap.add(now + span());
+        }
+        return fired;
+    }
+
+    @Benchmark
+    public long scanChurn()
+    {
+        now += step;
+        long[] d = deadlines;
+        for (int i = 0; i < d.length; i++) {
+            if (d[i] <= now) {
+                fired++;
+                d[i] = now + span();
+            }
+        }
+        return fired;
+    }
+
+    /**
+     * 1msからHORIZONまでの乱数。xorshiftで割り当てなしに作る
+     */
+    private long span()
+    {
+        long x = seed;
+        x ^= x << 13;
+        x ^= x >>> 7;
+        x ^= x << 17;
+        seed = x;
+        return 1 + Math.floorMod(x, HORIZON);
+    }
+}
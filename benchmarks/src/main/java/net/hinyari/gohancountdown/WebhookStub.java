@@ -0,0 +1,66 @@
+package net.hinyari.gohancountdown;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 予定のwebhookを受け取って表示するだけのサーバ。動作の確認に使う
+ * 受け取った時刻と、本文のtime(予定の時刻)からの遅れを出す
+ *
+ * java -cp benchmarks/target/benchmarks.jar net.hinyari.gohancountdown.WebhookStub [ポート]
+ * java -Dgohancountdown.events=events.txt -Dgohancountdown.events.webhook=http://127.0.0.1:8090/ -jar GohanCountDown.jar
+ */
+public class WebhookStub
+{
+    private static final String TIME_KEY = "\"time\":";
+
+    public static void main(String[] args) throws IOException
+    {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8090;
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+        server.createContext("/", exchange ->
+        {
+            long received = System.currentTimeMillis();
+            String body = read(exchange.getRequestBody());
+            System.out.println(received + " " + exchange.getRequestMethod() + " " + exchange.getRequestURI()
+                    + " " + body + lateness(body, received));
+            exchange.sendResponseHeaders(204, -1);
+            exchange.close();
+        });
+        server.start();
+        System.out.println("webhookを待ち受けています http://127.0.0.1:" + port + "/");
+    }
+
+    private static String read(InputStream in) throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int n;
+        while ((n = in.read(buffer)) >= 0) {
+            out.write(buffer, 0, n);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static String lateness(String body, long received)
+    {
+        int i = body.indexOf(TIME_KEY);
+        if (i < 0) {
+            return "";
+        }
+        int start = i + TIME_KEY.length();
+        int end = start;
+        while (end < body.length() && Character.isDigit(body.charAt(end))) {
+            end++;
+        }
+        if (end == start) {
+            return "";
+        }
+        return " 遅れ " + (received - Long.parseLong(body.substring(start, end))) + "ms";
+    }
+}
@@ -0,0 +1,77 @@
+package net.hinyari.gohancountdown;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * タイムゾーンごとの元日を1tick分進める処理
+ * queueTickはWorldNewYearQueueで先頭だけを見る。1分刻みで何年も進めるので元日を迎える回も平均に含まれる
+ * scanTickは比較用に、毎tickすべてのタイムゾーンの次の元日を求めて最も近いものを探す
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class WorldQueueBenchmark
+{
+    private static final long START = Instant.parse("2018-12-30T12:00:00Z").toEpochMilli();
+
+    @Param({"10", "100", "600"})
+    public int zones;
+
+    private List<ZoneId> zoneList;
+    private WorldNewYearQueue queue;
+    private long now;
+
+    @Setup
+    public void setup()
+    {
+        TreeSet<String> ids = new TreeSet<>(ZoneId.getAvailableZoneIds());
+        zoneList = new ArrayList<>();
+        // 時差がばらけるように全体から等間隔に選ぶ
+        List<String> all = new ArrayList<>(ids);
+        for (int i = 0; i < zones && i < all.size(); i++) {
+            zoneList.add(ZoneId.of(all.get((int) ((long) i * all.size() / Math.min(zones, all.size())))));
+        }
+        queue = new WorldNewYearQueue(zoneList, START);
+        now = START;
+    }
+
+    @Benchmark
+    public WorldNewYearQueue.Status queueTick()
+    {
+        now += 60_000L;
+        queue.advance(now);
+        return queue.getStatus();
+    }
+
+    @Benchmark
+    public long scanTick()
+    {
+        now += 60_000L;
+        long next = Long.MAX_VALUE;
+        for (ZoneId zone : zoneList) {
+            int year = Instant.ofEpochMilli(now).atZone(zone).getYear();
+            next = Math.min(next, WorldNewYearQueue.newYear(zone, year + 1));
+        }
+        return next;
+    }
+}
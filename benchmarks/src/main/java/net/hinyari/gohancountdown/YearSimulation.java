@@ -0,0 +1,250 @@
+package net.hinyari.gohancountdown;
+
+import java.lang.management.ManagementFactory;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 1年分のtickを仮想の時計で流すシミュレーション
+ * CountDownTimerをVirtualSchedulerで動かし、tickごとの表示内容をTickRendererに通して
+ * 目標の前後で表示が正しく切り替わるかを確かめ、tickの処理速度と割り当て量を出す
+ * 続けて、ずれた時刻を返す時刻源で同期し、NTP時刻の経路も仮想の時計のまま動くかを確かめる
+ * 確認に失敗した場合は終了コード1で終わる
+ *
+ * java -cp benchmarks/target/benchmarks.jar net.hinyari.gohancountdown.YearSimulation [日数]
+ */
+public class YearSimulation implements TickListener, TickRenderer.Sink
+{
+    // レベルの設定が消えないように参照を持っておく
+    private static final Logger LOGGER = Logger.getLogger("net.hinyari.gohancountdown");
+    private static final String HAPPY_NEW_YEAR = "HAPPY NEW YEAR";
+    private static final String YEARS_FROM = "2019年からの経過時間";
+    // NTP時刻の経路を確かめる時刻源のずれ(ms)。1000ms以上ずれていればNTP時刻を使う
+    private static final long SOURCE_OFFSET = 5000;
+    private static final long NTP_CHECK_HOURS = 6;
+
+    private final TickRenderer renderer = new TickRenderer();
+    private final long fromMillis;
+    private final long targetMillis;
+
+    private long ticks;
+    private long failures;
+    private String firstFailure;
+    private long lastNow = Long.MIN_VALUE;
+    private long lastUntil;
+    // 今のtickで描画された内容
+    private boolean happyNewYear;
+    private boolean yearsFrom;
+    private boolean zeroDays;
+    // 目標を過ぎた後に最初に描画されたtick
+    private long swappedAt = Long.MIN_VALUE;
+
+    YearSimulation(long fromMillis, long targetMillis)
+    {
+        this.fromMillis = fromMillis;
+        this.targetMillis = targetMillis;
+    }
+
+    public static void main(String[] args)
+    {
+        // 仮想の時間ではtickの統計のログが大量に出るので止める
+        LOGGER.setLevel(Level.WARNING);
+        int days = args.length > 0 ? Integer.parseInt(args[0]) : 365;
+        CountDownEngine engine = CountDownTimer.createEngine();
+        engine.update(System.currentTimeMillis());
+        long from = engine.getTargetMillis(0);
+        long target = engine.getTargetMillis(1);
+        // 目標が真ん中に来るように始める。秒の途中から始めて境目に揃うかも確かめる
+        long start = target - days * 86_400_000L / 2 - 123;
+        long end = start + days * 86_400_000L;
+
+        YearSimulation simulation = new YearSimulation(from, target);
+        VirtualScheduler scheduler = new VirtualScheduler(start);
+        CountDownTimer timer = new CountDownTimer(simulation, scheduler::currentTimeMillis, scheduler::nanoTime,
+                scheduler, scheduler, Collections.<TimeSource>emptyList(), null);
+
+        // JITが落ち着くまで1日分流してから測る
+        scheduler.runUntil(start + 86_400_000L);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        long ticksBefore = simulation.ticks;
+        long allocatedBefore = threads.getThreadAllocatedBytes(thread);
+        long startNanos = System.nanoTime();
+        scheduler.runUntil(end);
+        long elapsedNanos = System.nanoTime() - startNanos;
+        long allocated = threads.getThreadAllocatedBytes(thread) - allocatedBefore;
+        long measured = simulation.ticks - ticksBefore;
+
+        if (simulation.swappedAt != target + 1000) {
+            simulation.fail("目標の次の秒で経過時間が切り替わっていません: " + simulation.swappedAt);
+        }
+        // 始めた時点の1回と、その後の秒の境目ごと
+        long expected = Math.floorDiv(end, 1000L) - Math.floorDiv(start, 1000L) + 1;
+        if (simulation.ticks != expected) {
+            simulation.fail("tickの回数が合いません: " + simulation.ticks + " / " + expected);
+        }
+        TickStatistics statistics = timer.getTickStatistics();
+        NtpPathCheck ntp = new NtpPathCheck(start);
+        ntp.run(NTP_CHECK_HOURS * 3_600_000L);
+        if (ntp.failure != null) {
+            simulation.fail(ntp.failure);
+        }
+        System.out.println(String.format("%d日分 %d tick 目標 %s", days, simulation.ticks,
+                Instant.ofEpochMilli(target).atZone(engine.getZone())));
+        System.out.println(String.format("%.2f秒 %.0f tick/s %.1f ns/tick", elapsedNanos / 1e9,
+                measured * 1e9 / elapsedNanos, (double) elapsedNanos / measured));
+        System.out.println(String.format("割り当て %.1f bytes/tick (合計 %d MB)", (double) allocated / measured,
+                allocated >> 20));
+        System.out.println("scheduler " + statistics);
+        System.out.println(String.format("NTP時刻 %d時間 %d tick 取得 %d回", NTP_CHECK_HOURS, ntp.ticks, ntp.queries));
+        if (simulation.failures > 0) {
+            System.out.println("失敗 " + simulation.failures + "件。最初の失敗: " + simulation.firstFailure);
+            System.exit(1);
+        }
+        System.out.println("OK");
+        System.exit(0);
+    }
+
+    /**
+     * 時刻源のずれた時刻で表示し続けるかを確かめる
+     * 単調時計が仮想の時計と別だと補正済みの時刻が進まず、tickごとにずれを検出して取り直すことになる
+     */
+    private static final class NtpPathCheck implements TickListener, TimeSource
+    {
+        private final VirtualScheduler scheduler;
+        private long ticks;
+        private long queries;
+        private String failure;
+
+        NtpPathCheck(long start)
+        {
+            this.scheduler = new VirtualScheduler(start);
+        }
+
+        void run(long duration)
+        {
+            long end = scheduler.currentTimeMillis() + duration;
+            CountDownTimer timer = new CountDownTimer(this, scheduler::currentTimeMillis, scheduler::nanoTime,
+                    scheduler, scheduler, Collections.<TimeSource>singletonList(this), null);
+            scheduler.runUntil(end);
+            if (queries == 0) {
+                fail("時刻源から取得していません");
+            } else if (timer.currentTimeMillis() != end + SOURCE_OFFSET) {
+                fail("NTP時刻がずれています: " + (timer.currentTimeMillis() - end) + "ms");
+            } else if (queries > ticks / 10) {
+                fail("時刻源から取り直しすぎています: " + queries + "回 / " + ticks + " tick");
+            }
+        }
+
+        @Override
+        public String getName()
+        {
+            return "virtual";
+        }
+
+        @Override
+        public TimeSample query()
+        {
+            queries++;
+            return new TimeSample(getName(), SOURCE_OFFSET, 10, scheduler.currentTimeMillis(), scheduler.nanoTime());
+        }
+
+        @Override
+        public void onTick(TickSnapshot s)
+        {
+            ticks++;
+            // 最初の取得より前はシステム時刻で表示する
+            if (queries > 0 && s.getNowMillis() != scheduler.currentTimeMillis() + SOURCE_OFFSET) {
+                fail("表示がNTP時刻になっていません: " + (s.getNowMillis() - scheduler.currentTimeMillis()) + "ms");
+            }
+        }
+
+        private void fail(String message)
+        {
+            if (failure == null) {
+                failure = message;
+            }
+        }
+    }
+
+    @Override
+    public void onTick(TickSnapshot s)
+    {
+        ticks++;
+        long now = s.getNowMillis();
+        // 最初の1回は始めた時点で、以降は秒の境目ごとに来る
+        if (lastNow != Long.MIN_VALUE) {
+            if (now % 1000 != 0 || now - lastNow > 1000) {
+                fail("秒の境目ごとに来ていません: " + lastNow + " -> " + now);
+            } else if (lastNow % 1000 == 0 && s.getUntilSeconds() != lastUntil - 1) {
+                fail("残り秒数が1ずつ減っていません: " + now);
+            }
+        }
+        lastNow = now;
+        lastUntil = s.getUntilSeconds();
+
+        happyNewYear = false;
+        yearsFrom = false;
+        zeroDays = false;
+        renderer.render(s, this);
+        // 残りが1秒を切ったらHAPPY NEW YEARにし、目標を過ぎたら経過時間の起点を目標に切り替える
+        boolean reached = targetMillis - now < 1000;
+        boolean passed = now > targetMillis;
+        if (passed != s.isPassed()) {
+            fail("isPassedが目標と合いません: " + now);
+        }
+        if (happyNewYear != reached) {
+            fail("HAPPY NEW YEARの表示が目標と合いません: " + now);
+        }
+        if (yearsFrom != passed || passed && !zeroDays) {
+            fail("経過時間の表示の切り替えが目標と合いません: " + now);
+        }
+        if (s.getSinceSeconds() != Math.floorDiv(now - (passed ? targetMillis : fromMillis), 1000L)) {
+            fail("経過秒数が合いません: " + now);
+        }
+        if (passed && swappedAt == Long.MIN_VALUE) {
+            swappedAt = now;
+        }
+    }
+
+    @Override
+    public void update(int field, CharSequence text)
+    {
+        switch (field) {
+            case TickRenderer.UNTIL_SECONDS:
+                happyNewYear = contentEquals(text, HAPPY_NEW_YEAR);
+                break;
+            case TickRenderer.YEARS_FROM:
+                yearsFrom = contentEquals(text, YEARS_FROM);
+                break;
+            case TickRenderer.UNTIL_DAYS:
+                zeroDays = contentEquals(text, "000");
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void fail(String message)
+    {
+        failures++;
+        if (firstFailure == null) {
+            firstFailure = message;
+        }
+    }
+
+    private static boolean contentEquals(CharSequence a, String b)
+    {
+        if (a.length() != b.length()) {
+            return false;
+        }
+        for (int i = 0; i < b.length(); i++) {
+            if (a.charAt(i) != b.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,280 @@
+package net.hinyari.gohancountdown;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+/**
+ * tickのスレッドから使うためのログ
+ * 呼び出し側は事前に確保したリングバッファに書き込むだけで、文字列の組み立てとjava.util.loggingへの出力は
+ * 専用のスレッドで行う。バッファが一杯の時は待たずに捨てる
+ * 出力スレッドは書き込みがなければ起こされるまで眠るので、ログを出さない間はCPUを使わない
+ */
+public final class AsyncLogger
+{
+    // 2のべき乗
+    private static final int CAPACITY = 1024;
+    private static final int MASK = CAPACITY - 1;
+
+    /**
+     * リングバッファの1件。sequenceへの書き込みで他の項目を公開する
+     */
+    private static final class Entry
+    {
+        volatile long sequence = -1;
+        Logger logger;
+        Level level;
+        long millis;
+        long threadId;
+        String message;
+        boolean hasValue;
+        long value;
+        Object argument;
+        Throwable thrown;
+        long suppressed;
+    }
+
+    private static final Entry[] entries = new Entry[CAPACITY];
+    // 次に書き込む位置。書き込み側が取り合う
+    private static final AtomicLong head = new AtomicLong();
+    // 次に読み出す位置。出力スレッドしか書き換えない
+    private static volatile long tail;
+    private static final AtomicLong dropped = new AtomicLong();
+    private static volatile boolean running = true;
+    // 出力スレッドが眠っている、または眠ろうとしている間true。書き込み側はこれを見た時だけ起こす
+    private static volatile boolean waiting;
+    private static final Thread drainer;
+
+    static {
+        for (int i = 0; i < CAPACITY; i++) {
+            entries[i] = new Entry();
+        }
+        drainer = new Thread(AsyncLogger::drainLoop, "AsyncLogger");
+        drainer.setDaemon(true);
+        drainer.start();
+        // 終了時に残っているものを出力する
+        Runtime.getRuntime().addShutdownHook(new Thread(() ->
+        {
+            running = false;
+            LockSupport.unpark(drainer);
+            try {
+                drainer.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "AsyncLogger-shutdown"));
+    }
+
+    private final Logger logger;
+
+    private AsyncLogger(Logger logger)
+    {
+        this.logger = logger;
+    }
+
+    public static AsyncLogger getLogger(Class<?> clazz)
+    {
+        return new AsyncLogger(Logger.getLogger(clazz.getName()));
+    }
+
+    /**
+     * バッファが一杯で捨てた件数
+     */
+    public static long getDroppedCount()
+    {
+        return dropped.get();
+    }
+
+    public boolean isLoggable(Level level)
+    {
+        return logger.isLoggable(level);
+    }
+
+    public void info(String message)
+    {
+        log(Level.INFO, message);
+    }
+
+    public void fine(String message)
+    {
+        log(Level.FINE, message);
+    }
+
+    public void warning(String message)
+    {
+        log(Level.WARNING, message);
+    }
+
+    public void log(Level level, String message)
+    {
+        if (logger.isLoggable(level)) {
+            publish(level, message, false, 0, null, null, 0);
+        }
+    }
+
+    /**
+     * messageの後にvalueを続けたものを出力する。文字列にするのは出力スレッド
+     */
+    public void log(Level level, String message, long value)
+    {
+        if (logger.isLoggable(level)) {
+            publish(level, message, true, value, null, null, 0);
+        }
+    }
+
+    /**
+     * messageの後にargumentを文字列にしたものを続けて出力する
+     * argumentのtoStringは出力スレッドで呼ばれるので、変更されないオブジェクトを渡すこと
+     */
+    public void log(Level level, String message, Object argument)
+    {
+        if (logger.isLoggable(level)) {
+            publish(level, message, false, 0, argument, null, 0);
+        }
+    }
+
+    public void log(Level level, String message, Throwable thrown)
+    {
+        if (logger.isLoggable(level)) {
+            publish(level, message, false, 0, null, thrown, 0);
+        }
+    }
+
+    /**
+     * 出力する場合だけsupplierを出力スレッドで呼び出す
+     */
+    public void log(Level level, Supplier<String> supplier)
+    {
+        if (logger.isLoggable(level)) {
+            publish(level, null, false, 0, supplier, null, 0);
+        }
+    }
+
+    /**
+     * 繰り返し出力するものを間引く。limitが許さない間は数えるだけで何もしない
+     */
+    public void log(Level level, LogRateLimiter limit, String message, long value)
+    {
+        if (!logger.isLoggable(level)) {
+            return;
+        }
+        long suppressed = limit.acquire();
+        if (suppressed >= 0) {
+            publish(level, message, true, value, null, null, suppressed);
+        }
+    }
+
+    private void publish(Level level, String message, boolean hasValue, long value, Object argument,
+                         Throwable thrown, long suppressed)
+    {
+        long sequence;
+        do {
+            sequence = head.get();
+            if (sequence - tail >= CAPACITY) {
+                // 出力が追いついていないので待たずに捨てる
+                dropped.incrementAndGet();
+                return;
+            }
+        } while (!head.compareAndSet(sequence, sequence + 1));
+        Entry entry = entries[(int) sequence & MASK];
+        entry.logger = logger;
+        entry.level = level;
+        entry.millis = System.currentTimeMillis();
+        entry.threadId = Thread.currentThread().getId();
+        entry.message = message;
+        entry.hasValue = hasValue;
+        entry.value = value;
+        entry.argument = argument;
+        entry.thrown = thrown;
+        entry.suppressed = suppressed;
+        entry.sequence = sequence;
+        // sequenceを書いた後にwaitingを読む。出力スレッドは逆の順で読み書きするので、どちらかが必ず気付く
+        if (waiting) {
+            LockSupport.unpark(drainer);
+        }
+    }
+
+    private static void drainLoop()
+    {
+        long reportedDrops = 0;
+        while (true) {
+            boolean idle = !drain();
+            long drops = dropped.get();
+            if (drops != reportedDrops) {
+                Logger.getLogger(AsyncLogger.class.getName()).warning((drops - reportedDrops) + "件のログを捨てました");
+                reportedDrops = drops;
+            }
+            if (!running) {
+                drain();
+                return;
+            }
+            if (idle) {
+                waiting = true;
+                // 眠ると決めた後に公開されたものがあれば眠らない
+                while (running && entries[(int) tail & MASK].sequence != tail) {
+                    LockSupport.park(AsyncLogger.class);
+                }
+                waiting = false;
+            }
+        }
+    }
+
+    /**
+     * 公開済みのものをすべて出力する
+     *
+     * @return 1件以上出力したかどうか
+     */
+    private static boolean drain()
+    {
+        long t = tail;
+        boolean any = false;
+        Entry entry;
+        while ((entry = entries[(int) t & MASK]).sequence == t) {
+            try {
+                entry.logger.log(toRecord(entry));
+            } catch (RuntimeException e) {
+                // ログの失敗で出力スレッドを止めない
+            }
+            // 参照を残さないよう空にしてから位置を進める
+            entry.logger = null;
+            entry.message = null;
+            entry.argument = null;
+            entry.thrown = null;
+            tail = ++t;
+            any = true;
+        }
+        return any;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static LogRecord toRecord(Entry entry)
+    {
+        StringBuilder sb = new StringBuilder(64);
+        if (entry.message != null) {
+            sb.append(entry.message);
+        }
+        if (entry.hasValue) {
+            sb.append(entry.value);
+        }
+        if (entry.argument instanceof Supplier) {
+            sb.append(((Supplier<String>) entry.argument).get());
+        } else if (entry.argument != null) {
+            sb.append(entry.argument);
+        }
+        if (entry.suppressed > 0) {
+            sb.append(" (他").append(entry.suppressed).append("件を省略)");
+        }
+        LogRecord record = new LogRecord(entry.level, sb.toString());
+        record.setLoggerName(entry.logger.getName());
+        // 呼び出し元を出力スレッドから推測させない
+        record.setSourceClassName(entry.logger.getName());
+        record.setSourceMethodName(null);
+        record.setMillis(entry.millis);
+        record.setThreadID((int) entry.threadId);
+        record.setThrown(entry.thrown);
+        return record;
+    }
+}
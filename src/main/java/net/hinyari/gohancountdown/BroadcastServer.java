@@ -0,0 +1,413 @@
+package net.hinyari.gohancountdown;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+
+/**
+ * 画面を持たずにカウントダウンをHTTPで配信する
+ * GET /now で最新の内容をJSONで、GET /events でtickごとの内容をServer-Sent Eventsで返す
+ * tickの内容は1回だけバイト列にし、各クライアントへは同じ配列を指すduplicate()を書き込むのでコピーしない
+ */
+public class BroadcastServer implements TickListener, Closeable
+{
+    private static final AsyncLogger logger = AsyncLogger.getLogger(BroadcastServer.class);
+
+    public static final int DEFAULT_PORT = 8080;
+    // リクエストヘッダの上限
+    private static final int MAX_REQUEST = 8192;
+    // 書き込みがこの回数分のtickの間終わらないクライアントは切断する
+    private static final int MAX_STALLED = 30;
+
+    private static final ByteBuffer EVENTS_HEADER = ascii("HTTP/1.1 200 OK\r\n"
+            + "Content-Type: text/event-stream; charset=UTF-8\r\n"
+            + "Cache-Control: no-cache\r\n"
+            + "Connection: keep-alive\r\n"
+            + "Access-Control-Allow-Origin: *\r\n\r\n");
+    private static final ByteBuffer NOT_FOUND = ascii("HTTP/1.1 404 Not Found\r\n"
+            + "Content-Length: 0\r\nConnection: close\r\n\r\n");
+    private static final ByteBuffer UNAVAILABLE = ascii("HTTP/1.1 503 Service Unavailable\r\n"
+            + "Content-Length: 0\r\nConnection: close\r\n\r\n");
+
+    private static final byte[] EVENT_PREFIX = "data: ".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * 1回のtickを配信用にエンコードしたもの。作った後は読み出し専用
+     * SSEのイベントと/nowの応答を1つのヒープの配列に並べる
+     * 直接バッファはtickごとに確保するとGCが動くまでネイティブのメモリを解放しないので使わない
+     * ヒープのバッファの書き込みはJDKがスレッドごとに使い回す直接バッファを通すので、クライアントの数だけ確保することもない
+     * 遅いクライアントは何tickも前のFrameを書き続けることがあるので、配列を使い回して上書きすることもしない
+     */
+    private static final class Frame
+    {
+        final ByteBuffer event;
+        final ByteBuffer response;
+
+        Frame(byte[] json)
+        {
+            byte[] header = ("HTTP/1.1 200 OK\r\nContent-Type: application/json; charset=UTF-8\r\n"
+                    + "Cache-Control: no-cache\r\nAccess-Control-Allow-Origin: *\r\n"
+                    + "Content-Length: " + json.length + "\r\nConnection: close\r\n\r\n")
+                    .getBytes(StandardCharsets.US_ASCII);
+            int eventLength = EVENT_PREFIX.length + json.length + 2;
+            byte[] bytes = new byte[eventLength + header.length + json.length];
+            ByteBuffer.wrap(bytes).put(EVENT_PREFIX).put(json).put((byte) '\n').put((byte) '\n')
+                    .put(header).put(json);
+            event = ByteBuffer.wrap(bytes, 0, eventLength).slice().asReadOnlyBuffer();
+            response = ByteBuffer.wrap(bytes, eventLength, bytes.length - eventLength).slice().asReadOnlyBuffer();
+        }
+    }
+
+    private static final class Client
+    {
+        final SocketChannel channel;
+        ByteBuffer request = ByteBuffer.allocate(512);
+        // 書き込み中のバッファと、その後に書くバッファ
+        ByteBuffer out;
+        ByteBuffer next;
+        boolean stream;
+        boolean closeAfterWrite;
+        int stalled;
+
+        Client(SocketChannel channel)
+        {
+            this.channel = channel;
+        }
+    }
+
+    private final InetSocketAddress address;
+    private final AtomicReference<Frame> latest = new AtomicReference<>();
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final List<Client> streams = new ArrayList<>();
+
+    private Selector selector;
+    private ServerSocketChannel serverChannel;
+    private Thread thread;
+    private volatile boolean closed;
+    // 以下はI/Oスレッドからしか触らない
+    private Frame sent;
+    private final ByteBuffer discard = ByteBuffer.allocate(256);
+
+    public BroadcastServer(InetSocketAddress address)
+    {
+        this.address = address;
+    }
+
+    /**
+     * システムプロパティの設定から作る
+     * -Dgohancountdown.broadcast.host=127.0.0.1 -Dgohancountdown.broadcast.port=8080
+     */
+    public static BroadcastServer fromSystemProperties()
+    {
+        String host = System.getProperty("gohancountdown.broadcast.host", "127.0.0.1");
+        int port = Integer.getInteger("gohancountdown.broadcast.port", DEFAULT_PORT);
+        return new BroadcastServer(new InetSocketAddress(host, port));
+    }
+
+    public synchronized void start() throws IOException
+    {
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.configureBlocking(false);
+        serverChannel.bind(address, 1024);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        thread = new Thread(this::loop, "BroadcastServer");
+        thread.start();
+        logger.info("配信を開始しました " + getAddress());
+    }
+
+    public InetSocketAddress getAddress()
+    {
+        try {
+            return (InetSocketAddress) serverChannel.getLocalAddress();
+        } catch (IOException e) {
+            return address;
+        }
+    }
+
+    /**
+     * 接続中のストリームの数
+     */
+    public int getStreamCount()
+    {
+        synchronized (streams) {
+            return streams.size();
+        }
+    }
+
+    public long getPublishedCount()
+    {
+        return published.get();
+    }
+
+    /**
+     * 前の内容を書き終わっていなかったために送らなかった数
+     */
+    public long getDroppedCount()
+    {
+        return dropped.get();
+    }
+
+    @Override
+    public void onTick(TickSnapshot snapshot)
+    {
+        // エンコードはtickごとに1回だけ
+        latest.set(new Frame(SnapshotJson.encode(snapshot)));
+        if (published.incrementAndGet() == 1) {
+            StartupTimer.markFirstFrame();
+        }
+        Selector s = selector;
+        if (s != null) {
+            s.wakeup();
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException
+    {
+        if (selector == null || closed) {
+            return;
+        }
+        // 後始末はI/Oスレッドで行う
+        closed = true;
+        selector.wakeup();
+        try {
+            thread.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void loop()
+    {
+        try {
+            while (!closed) {
+                selector.select();
+                Frame frame = latest.get();
+                if (frame != null && frame != sent) {
+                    sent = frame;
+                    broadcast(frame);
+                }
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    handle(key);
+                }
+            }
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "配信が停止しました", e);
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                try {
+                    key.channel().close();
+                } catch (IOException ignored) {
+                }
+            }
+            synchronized (streams) {
+                streams.clear();
+            }
+            try {
+                selector.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private void handle(SelectionKey key)
+    {
+        if (!key.isValid()) {
+            return;
+        }
+        try {
+            if (key.isAcceptable()) {
+                accept();
+                return;
+            }
+            Client client = (Client) key.attachment();
+            if (key.isReadable()) {
+                read(key, client);
+            }
+            if (key.isValid() && key.isWritable()) {
+                write(key, client);
+            }
+        } catch (IOException e) {
+            close(key);
+        }
+    }
+
+    private void accept() throws IOException
+    {
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            channel.register(selector, SelectionKey.OP_READ, new Client(channel));
+        }
+    }
+
+    private void read(SelectionKey key, Client client) throws IOException
+    {
+        if (client.request == null) {
+            // ストリームのクライアントから来たものは読み捨てて切断だけ検出する
+            // Java 9以降のByteBufferを返すメソッドに結び付くと8で動かないので、Bufferとして呼ぶ
+            ((Buffer) discard).clear();
+            if (client.channel.read(discard) < 0) {
+                close(key);
+            }
+            return;
+        }
+        if (client.channel.read(client.request) < 0) {
+            close(key);
+            return;
+        }
+        String path = parsePath(client.request);
+        if (path == null) {
+            if (!client.request.hasRemaining()) {
+                if (client.request.capacity() >= MAX_REQUEST) {
+                    close(key);
+                    return;
+                }
+                ByteBuffer larger = ByteBuffer.allocate(client.request.capacity() * 2);
+                ((Buffer) client.request).flip();
+                larger.put(client.request);
+                client.request = larger;
+            }
+            return;
+        }
+        client.request = null;
+        Frame frame = latest.get();
+        if (path.equals("/events")) {
+            client.stream = true;
+            client.out = EVENTS_HEADER.duplicate();
+            client.next = frame == null ? null : frame.event.duplicate();
+            synchronized (streams) {
+                streams.add(client);
+            }
+        } else if (path.equals("/now")) {
+            client.out = frame == null ? UNAVAILABLE.duplicate() : frame.response.duplicate();
+            client.closeAfterWrite = true;
+        } else {
+            client.out = NOT_FOUND.duplicate();
+            client.closeAfterWrite = true;
+        }
+        write(key, client);
+    }
+
+    /**
+     * リクエストヘッダを最後まで受け取っていればパスを返す
+     */
+    private static String parsePath(ByteBuffer request)
+    {
+        int end = request.position();
+        boolean complete = false;
+        for (int i = 3; i < end; i++) {
+            if (request.get(i - 3) == '\r' && request.get(i - 2) == '\n'
+                    && request.get(i - 1) == '\r' && request.get(i) == '\n') {
+                complete = true;
+                break;
+            }
+        }
+        if (!complete) {
+            return null;
+        }
+        StringBuilder line = new StringBuilder();
+        for (int i = 0; i < end && request.get(i) != '\r'; i++) {
+            line.append((char) request.get(i));
+        }
+        String[] parts = line.toString().split(" ");
+        if (parts.length < 2 || !parts[0].equals("GET")) {
+            return "";
+        }
+        int query = parts[1].indexOf('?');
+        return query < 0 ? parts[1] : parts[1].substring(0, query);
+    }
+
+    private void broadcast(Frame frame)
+    {
+        synchronized (streams) {
+            for (int i = streams.size() - 1; i >= 0; i--) {
+                Client client = streams.get(i);
+                SelectionKey key = client.channel.keyFor(selector);
+                if (key == null || !key.isValid()) {
+                    continue;
+                }
+                if (client.out != null) {
+                    // まだ前の内容を書いている遅いクライアントには、書き終わった後に最新の内容だけを送る
+                    if (++client.stalled > MAX_STALLED) {
+                        close(key);
+                        continue;
+                    }
+                    if (client.next != null) {
+                        dropped.incrementAndGet();
+                    }
+                    client.next = frame.event.duplicate();
+                    continue;
+                }
+                client.stalled = 0;
+                client.out = frame.event.duplicate();
+                try {
+                    write(key, client);
+                } catch (IOException e) {
+                    close(key);
+                }
+            }
+        }
+    }
+
+    private void write(SelectionKey key, Client client) throws IOException
+    {
+        while (client.out != null) {
+            client.channel.write(client.out);
+            if (client.out.hasRemaining()) {
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                return;
+            }
+            client.out = client.next;
+            client.next = null;
+        }
+        if (client.closeAfterWrite) {
+            close(key);
+            return;
+        }
+        key.interestOps(SelectionKey.OP_READ);
+    }
+
+    private void close(SelectionKey key)
+    {
+        Client client = (Client) key.attachment();
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException ignored) {
+        }
+        if (client != null && client.stream) {
+            synchronized (streams) {
+                streams.remove(client);
+            }
+        }
+    }
+
+    private static ByteBuffer ascii(String s)
+    {
+        byte[] bytes = s.getBytes(StandardCharsets.US_ASCII);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+        buffer.put(bytes);
+        ((Buffer) buffer).flip();
+        return buffer.asReadOnlyBuffer();
+    }
+}
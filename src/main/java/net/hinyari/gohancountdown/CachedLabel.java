@@ -0,0 +1,48 @@
+package net.hinyari.gohancountdown;
+
+import javax.swing.*;
+
+/**
+ * 最後に設定した文字列を覚えておき、変わった時だけsetTextするJLabelのラッパー
+ */
+public class CachedLabel
+{
+    private final JLabel label;
+    private String last;
+
+    public CachedLabel(JLabel label)
+    {
+        this.label = label;
+        this.last = label.getText();
+    }
+
+    /**
+     * フォーマッタの内容が前回と違う時だけ文字列を作ってラベルに反映する
+     *
+     * @return ラベルを書き換えた場合true
+     */
+    public boolean update(DigitFormatter text)
+    {
+        if (text.contentEquals(last)) {
+            return false;
+        }
+        last = text.toString();
+        label.setText(last);
+        return true;
+    }
+
+    public boolean update(String text)
+    {
+        if (text.equals(last)) {
+            return false;
+        }
+        last = text;
+        label.setText(text);
+        return true;
+    }
+
+    public JLabel getLabel()
+    {
+        return label;
+    }
+}
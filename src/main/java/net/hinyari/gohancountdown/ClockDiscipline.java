@@ -0,0 +1,203 @@
+package net.hinyari.gohancountdown;
+
+/**
+ * 同期の結果の履歴から時計のずれ方を推定し、次に同期するまでの間隔を決める
+ * ntpdと同じく、予測どおりのオフセットが続けば間隔を倍にし、予測から外れれば半分にする
+ * 目標時刻の直前には間隔にかかわらず1回取り直す
+ */
+public class ClockDiscipline
+{
+    // 間隔は2^pollの秒。32秒から1024秒まで
+    static final int MIN_POLL = 5;
+    static final int MAX_POLL = 10;
+    public static final long MAX_INTERVAL = (1L << MAX_POLL) * 1000L;
+    // 予測どおりの結果がこの回数続いたら間隔を延ばす
+    private static final int STABLE_COUNT = 4;
+    // 予測からのずれがジッタのこの倍数を超えたら間隔を縮める
+    private static final double JITTER_GATE = 4;
+    // ジッタが小さくてもこれ以下のずれは予測どおりとみなす(ms)
+    private static final long MIN_GATE = 10;
+    // 回帰に使う履歴の件数
+    private static final int HISTORY = 8;
+    // 時計の周波数の補正に使うのに必要な履歴の長さ(ms)。短いと測定誤差の方が大きくなる
+    private static final long SETTLED_SPAN = 10L * 60 * 1000;
+    // 目標時刻のどれだけ前に取り直すか
+    public static final long DEFAULT_LEAD = 60_000L;
+
+    private final long[] times = new long[HISTORY];
+    private final long[] offsets = new long[HISTORY];
+    private final long lead;
+    private int count;
+    private int poll = MIN_POLL;
+    private int stable;
+    // 回帰で求めたずれ方。ms/msをppmにしたもの
+    private volatile double drift;
+    // 回帰の残差の二乗平均平方根(ms)
+    private volatile double jitter;
+    // 回帰に使った履歴の最初から最後までの時間(ms)
+    private volatile long span;
+    // 最後に同期を試みた時刻(システム時刻)
+    private volatile long lastAttemptAt = Long.MIN_VALUE;
+
+    public ClockDiscipline()
+    {
+        this(Long.getLong("gohancountdown.discipline.lead", DEFAULT_LEAD));
+    }
+
+    /**
+     * @param lead 目標時刻のどれだけ前に取り直すか(ms)
+     */
+    public ClockDiscipline(long lead)
+    {
+        this.lead = lead;
+    }
+
+    /**
+     * 同期した結果を取り込み、間隔を調整する
+     *
+     * @return 次に同期するまでの間隔(ms)
+     */
+    public synchronized long update(TimeSample sample)
+    {
+        long time = sample.getLocalTimeMillis();
+        long offset = sample.getOffset();
+        if (count >= 2) {
+            double error = Math.abs(offset - predict(time));
+            if (error > Math.max(MIN_GATE, jitter * JITTER_GATE)) {
+                // 予測から外れたので間隔を縮めて様子を見る
+                poll = Math.max(MIN_POLL, poll - 1);
+                stable = 0;
+            } else if (++stable >= STABLE_COUNT) {
+                poll = Math.min(MAX_POLL, poll + 1);
+                stable = 0;
+            }
+        }
+        int index = count++ % HISTORY;
+        times[index] = time;
+        offsets[index] = offset;
+        regress();
+        lastAttemptAt = time;
+        return getInterval();
+    }
+
+    /**
+     * 取得に失敗した。次は最短の間隔で試す
+     */
+    public synchronized long onFailure(long now)
+    {
+        lastAttemptAt = now;
+        poll = MIN_POLL;
+        stable = 0;
+        return getInterval();
+    }
+
+    /**
+     * 時計が飛んだなど、履歴が使えなくなった
+     */
+    public synchronized void reset()
+    {
+        count = 0;
+        poll = MIN_POLL;
+        stable = 0;
+        drift = 0;
+        jitter = 0;
+        span = 0;
+    }
+
+    /**
+     * 目標時刻の直前で、まだその区間で取得を試みていなければtrue
+     *
+     * @param target 次の目標時刻(システム時刻)。なければLong.MAX_VALUE
+     * @param now システム時刻
+     */
+    public boolean isSampleDueBefore(long target, long now)
+    {
+        long from = target - lead;
+        return now >= from && now < target && lastAttemptAt < from;
+    }
+
+    public synchronized long getInterval()
+    {
+        return (1L << poll) * 1000L;
+    }
+
+    public synchronized int getPoll()
+    {
+        return poll;
+    }
+
+    /**
+     * 推定したずれ方(ppm)。システム時刻に対してオフセットが増えていく速さ
+     */
+    public double getDrift()
+    {
+        return drift;
+    }
+
+    /**
+     * ClockModelの周波数の補正に使えるだけの長さの履歴からずれ方を求めていればtrue
+     * システム時刻と単調時計が同じ発振器で進むとみなし、オフセットのずれ方をそのまま周波数誤差として使う
+     */
+    public boolean isDriftSettled()
+    {
+        return span >= SETTLED_SPAN;
+    }
+
+    public double getJitter()
+    {
+        return jitter;
+    }
+
+    /**
+     * 履歴から推定した、指定した時刻でのオフセット
+     */
+    public synchronized long predict(long time)
+    {
+        int n = Math.min(count, HISTORY);
+        if (n == 0) {
+            return 0;
+        }
+        int last = (count - 1) % HISTORY;
+        return offsets[last] + (long) ((time - times[last]) * drift / 1e6);
+    }
+
+    private void regress()
+    {
+        int n = Math.min(count, HISTORY);
+        if (n < 2) {
+            drift = 0;
+            jitter = 0;
+            span = 0;
+            return;
+        }
+        // 桁落ちを避けるため最初の点からの差で計算する
+        long t0 = times[(count - n) % HISTORY];
+        span = times[(count - 1) % HISTORY] - t0;
+        double sumT = 0, sumO = 0;
+        for (int i = 0; i < n; i++) {
+            sumT += times[i] - t0;
+            sumO += offsets[i];
+        }
+        double meanT = sumT / n, meanO = sumO / n;
+        double stt = 0, sto = 0;
+        for (int i = 0; i < n; i++) {
+            double dt = times[i] - t0 - meanT;
+            stt += dt * dt;
+            sto += dt * (offsets[i] - meanO);
+        }
+        double slope = stt == 0 ? 0 : sto / stt;
+        double residual = 0;
+        for (int i = 0; i < n; i++) {
+            double r = offsets[i] - (meanO + slope * (times[i] - t0 - meanT));
+            residual += r * r;
+        }
+        drift = slope * 1e6;
+        jitter = Math.sqrt(residual / n);
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        return String.format("poll=%ds drift=%.1fppm jitter=%.1fms", 1 << poll, drift, jitter);
+    }
+}
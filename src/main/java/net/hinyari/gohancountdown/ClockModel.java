@@ -0,0 +1,123 @@
+package net.hinyari.gohancountdown;
+
+import java.util.function.LongSupplier;
+
+/**
+ * 同期した時刻とその時の単調時計(System.nanoTime())の組を基準に、単調増加する時計から現在時刻を求める
+ * 基準からの経過時間は渡された周波数誤差で補正する。周波数誤差はここでは推定せず、ClockDisciplineの回帰で求めたものを使う
+ * 基準は不変オブジェクトとしてvolatileで差し替えるので、読み出しはロックなしで行える
+ */
+public class ClockModel
+{
+    // 周波数誤差の上限(ppm)。ntpdと同じ
+    private static final double FREQUENCY_LIMIT = 500;
+
+    private static final class Reference
+    {
+        final long epochMillis;
+        final long nanos;
+        final double ppm;
+
+        Reference(long epochMillis, long nanos, double ppm)
+        {
+            this.epochMillis = epochMillis;
+            this.nanos = nanos;
+            this.ppm = ppm;
+        }
+
+        long at(long nanoTime)
+        {
+            long elapsed = nanoTime - nanos;
+            return epochMillis + (long) (elapsed * (1 + ppm / 1e6)) / 1_000_000L;
+        }
+    }
+
+    // システム時刻(エポックミリ秒)と単調時計(ns)。シミュレーションでは仮想の時計に差し替える
+    private final LongSupplier systemClock;
+    private final LongSupplier nanoClock;
+    private final boolean frequencyCorrection;
+    private volatile Reference reference;
+
+    public ClockModel()
+    {
+        this(System::currentTimeMillis, System::nanoTime);
+    }
+
+    /**
+     * @param frequencyCorrection 渡された周波数誤差で補正するかどうか
+     */
+    public ClockModel(boolean frequencyCorrection)
+    {
+        this(System::currentTimeMillis, System::nanoTime, frequencyCorrection);
+    }
+
+    /**
+     * @param systemClock システム時刻(エポックミリ秒)
+     * @param nanoClock   単調時計(ns)。update()に渡すTimeSampleのgetLocalNanos()と同じ時計であること
+     */
+    public ClockModel(LongSupplier systemClock, LongSupplier nanoClock)
+    {
+        this(systemClock, nanoClock,
+                Boolean.parseBoolean(System.getProperty("gohancountdown.clock.frequency", "true")));
+    }
+
+    public ClockModel(LongSupplier systemClock, LongSupplier nanoClock, boolean frequencyCorrection)
+    {
+        this.systemClock = systemClock;
+        this.nanoClock = nanoClock;
+        this.frequencyCorrection = frequencyCorrection;
+    }
+
+    public boolean isSynchronized()
+    {
+        return reference != null;
+    }
+
+    /**
+     * 補正済みの現在時刻。同期していなければシステム時刻を返す
+     */
+    public long currentTimeMillis()
+    {
+        Reference r = reference;
+        if (r == null) {
+            return systemClock.getAsLong();
+        }
+        return r.at(nanoClock.getAsLong());
+    }
+
+    /**
+     * 補正済みの時刻とシステム時刻の現在の差(ms)
+     */
+    public long getOffset()
+    {
+        return currentTimeMillis() - systemClock.getAsLong();
+    }
+
+    /**
+     * 補正に使っている周波数誤差(ppm)
+     */
+    public double getFrequency()
+    {
+        Reference r = reference;
+        return r == null ? 0 : r.ppm;
+    }
+
+    /**
+     * 同期した結果を基準として取り込む
+     *
+     * @param ppm 基準から先の周波数誤差。ClockDiscipline.getDrift()のように、時刻源の時刻がシステム時刻より速く進む割合
+     */
+    public void update(TimeSample sample, double ppm)
+    {
+        double frequency = frequencyCorrection ? Math.max(-FREQUENCY_LIMIT, Math.min(FREQUENCY_LIMIT, ppm)) : 0;
+        reference = new Reference(sample.getReferenceMillis(), sample.getLocalNanos(), frequency);
+    }
+
+    /**
+     * 基準を破棄してシステム時刻に戻す
+     */
+    public void reset()
+    {
+        reference = null;
+    }
+}
@@ -0,0 +1,158 @@
+package net.hinyari.gohancountdown;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 複数の時刻源に同時に問い合わせ、OffsetSelectorで外れ値を除いたオフセットを求める
+ * 応答しない、遅い、他と合わない時刻源は問い合わせる回数を減らす
+ */
+public class ClockSampler implements TimeSource
+{
+    private static final AsyncLogger logger = AsyncLogger.getLogger(ClockSampler.class);
+
+    private final SntpTimeSource source;
+    private final List<SourceStatistics> statistics;
+    private final ExecutorService executor;
+    private final long deadline;
+    private long round;
+
+    /**
+     * ServiceLoaderから作る場合。時刻源はシステムプロパティの設定を使う
+     */
+    public ClockSampler()
+    {
+        this(SntpTimeSource.fromSystemProperties());
+    }
+
+    public ClockSampler(SntpTimeSource source)
+    {
+        this(source, source.getTimeout() + 500L);
+    }
+
+    /**
+     * @param source   問い合わせ先の一覧と1回の問い合わせ方法
+     * @param deadline 全体の締め切り(ms)。間に合わなかった時刻源は失敗として扱う
+     */
+    public ClockSampler(SntpTimeSource source, long deadline)
+    {
+        this.source = source;
+        this.deadline = deadline;
+        List<SourceStatistics> list = new ArrayList<>();
+        for (String server : source.getServers()) {
+            list.add(new SourceStatistics(server));
+        }
+        this.statistics = Collections.unmodifiableList(list);
+        this.executor = Executors.newFixedThreadPool(list.size(), r ->
+        {
+            Thread thread = new Thread(r, "ClockSampler");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public String getName()
+    {
+        return "sntp";
+    }
+
+    @Override
+    public TimeSample query() throws IOException
+    {
+        return sample();
+    }
+
+    public List<SourceStatistics> getStatistics()
+    {
+        return statistics;
+    }
+
+    /**
+     * 時刻源に問い合わせて、選んだオフセットを返す
+     *
+     * @throws IOException 応答がない、または過半数で合意が取れない場合
+     */
+    public synchronized TimeSample sample() throws IOException
+    {
+        List<SourceStatistics> targets = new ArrayList<>();
+        for (SourceStatistics s : statistics) {
+            if (s.isDue(round)) {
+                targets.add(s);
+            }
+        }
+        // 全部間引かれた回は全部に問い合わせる
+        if (targets.isEmpty()) {
+            targets.addAll(statistics);
+        }
+        round++;
+
+        List<Callable<TimeSample>> tasks = new ArrayList<>();
+        for (SourceStatistics s : targets) {
+            tasks.add(() -> source.query(s.getServer()));
+        }
+        List<Future<TimeSample>> futures;
+        try {
+            futures = executor.invokeAll(tasks, deadline, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("時刻の取得が中断されました", e);
+        }
+
+        List<TimeSample> samples = new ArrayList<>();
+        List<SourceStatistics> responded = new ArrayList<>();
+        for (int i = 0; i < futures.size(); i++) {
+            SourceStatistics stat = targets.get(i);
+            try {
+                TimeSample sample = futures.get(i).get();
+                stat.recordSuccess(sample);
+                samples.add(sample);
+                responded.add(stat);
+            } catch (ExecutionException | CancellationException e) {
+                logger.fine(stat.getServer() + " から応答がありません " + e);
+                stat.recordFailure();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("時刻の取得が中断されました", e);
+            }
+        }
+        if (samples.isEmpty()) {
+            throw new IOException("すべての時刻源から応答がありません");
+        }
+
+        OffsetSelector selector = OffsetSelector.select(samples, targets.size());
+        if (selector == null) {
+            for (SourceStatistics stat : responded) {
+                stat.recordFalseticker();
+            }
+            throw new IOException("時刻源の間で時刻が一致しません");
+        }
+        double bestRtt = Double.MAX_VALUE;
+        for (TimeSample s : selector.getTruechimers()) {
+            bestRtt = Math.min(bestRtt, s.getDelay());
+        }
+        for (int i = 0; i < samples.size(); i++) {
+            if (selector.getFalsetickers().contains(samples.get(i))) {
+                logger.warning(samples.get(i) + " は他の時刻源と一致しないため除外しました");
+                responded.get(i).recordFalseticker();
+            } else {
+                responded.get(i).recordTruechimer(bestRtt);
+            }
+        }
+        return selector.toSample();
+    }
+
+    public void shutdown()
+    {
+        executor.shutdownNow();
+    }
+}
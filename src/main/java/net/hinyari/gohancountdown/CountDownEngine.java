@@ -0,0 +1,123 @@
+package net.hinyari.gohancountdown;
+
+import java.time.ZoneId;
+import java.time.zone.ZoneRules;
+
+/**
+ * 目標時刻をエポックミリ秒に解決して保持する
+ * 解決し直すのは目標を過ぎた時とタイムゾーン(ルール)が変わった時だけで、
+ * 毎tickの計算はlongの引き算だけになる
+ */
+public class CountDownEngine
+{
+    // システムのタイムゾーンが変わっていないか確認する間隔
+    private static final long ZONE_CHECK_INTERVAL = 60_000L;
+
+    private final CountDownTarget[] targets;
+    private final long[] targetMillis;
+
+    private ZoneId zone;
+    private ZoneRules rules;
+    private long lastCheckAt = Long.MIN_VALUE;
+    private long nextCheckAt = Long.MIN_VALUE;
+
+    public CountDownEngine(CountDownTarget... targets)
+    {
+        if (targets.length == 0) {
+            throw new IllegalArgumentException("targets is empty");
+        }
+        this.targets = targets.clone();
+        this.targetMillis = new long[targets.length];
+    }
+
+    /**
+     * 必要であれば目標時刻を解決し直す
+     *
+     * @return 解決し直した場合true
+     */
+    public boolean update(long nowMillis)
+    {
+        if (nowMillis < nextCheckAt && nowMillis >= lastCheckAt) {
+            return false;
+        }
+        ZoneId currentZone = ZoneId.systemDefault();
+        ZoneRules currentRules = currentZone.getRules();
+        boolean resolved = false;
+        // 時計が巻き戻った場合も解決し直す
+        if (!currentZone.equals(zone) || !currentRules.equals(rules)
+                || nowMillis < lastCheckAt || isPassed(nowMillis)) {
+            zone = currentZone;
+            rules = currentRules;
+            resolve(nowMillis);
+            resolved = true;
+        }
+        lastCheckAt = nowMillis;
+        nextCheckAt = nextEdge(nowMillis);
+        return resolved;
+    }
+
+    private boolean isPassed(long nowMillis)
+    {
+        // 前回の確認以降に通過した目標があるか
+        for (long target : targetMillis) {
+            if (target <= nowMillis && target > lastCheckAt) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void resolve(long nowMillis)
+    {
+        for (int i = 0; i < targets.length; i++) {
+            targetMillis[i] = targets[i].resolve(nowMillis, zone);
+        }
+    }
+
+    private long nextEdge(long nowMillis)
+    {
+        long next = nowMillis + ZONE_CHECK_INTERVAL;
+        for (long target : targetMillis) {
+            if (target > nowMillis && target < next) {
+                next = target;
+            }
+        }
+        return next;
+    }
+
+    public int size()
+    {
+        return targets.length;
+    }
+
+    public CountDownTarget getTarget(int index)
+    {
+        return targets[index];
+    }
+
+    public long getTargetMillis(int index)
+    {
+        return targetMillis[index];
+    }
+
+    public ZoneId getZone()
+    {
+        return zone;
+    }
+
+    /**
+     * 目標までの秒数(切り捨て)。目標を過ぎていれば負の値になる
+     */
+    public long secondsUntil(int index, long nowMillis)
+    {
+        return Math.floorDiv(targetMillis[index] - nowMillis, 1000L);
+    }
+
+    /**
+     * 目標からの経過秒数(切り捨て)
+     */
+    public long secondsSince(int index, long nowMillis)
+    {
+        return Math.floorDiv(nowMillis - targetMillis[index], 1000L);
+    }
+}
@@ -0,0 +1,136 @@
+package net.hinyari.gohancountdown;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * 名前の付いたカウントダウンの予定
+ * ファイルからは1行に1つ「時刻 動作 名前」の形で読む。#から後はコメント
+ * <pre>
+ * 2019-01-01T00:00:00+09:00 highlight,beep,webhook 元日
+ * 2018-12-31T23:59:00 beep 残り1分
+ * 2019-02-05 highlight 春節
+ * </pre>
+ * 時刻にオフセットがなければ指定したタイムゾーンの時刻、日付だけならその日の0時とする
+ */
+public final class CountDownEvent
+{
+    /**
+     * 時刻が来た時の動作
+     */
+    public enum Action
+    {
+        // 画面を点滅させる
+        HIGHLIGHT,
+        // 音を鳴らす
+        BEEP,
+        // 指定したURLへ通知する
+        WEBHOOK
+    }
+
+    private final String name;
+    private final long timeMillis;
+    private final Set<Action> actions;
+
+    public CountDownEvent(String name, long timeMillis, Set<Action> actions)
+    {
+        this.name = name;
+        this.timeMillis = timeMillis;
+        this.actions = actions.isEmpty() ? Collections.<Action>emptySet()
+                : Collections.unmodifiableSet(EnumSet.copyOf(actions));
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public long getTimeMillis()
+    {
+        return timeMillis;
+    }
+
+    public Set<Action> getActions()
+    {
+        return actions;
+    }
+
+    /**
+     * ファイルから予定を読む。形式が正しくない行は行番号を付けて例外にする
+     */
+    public static List<CountDownEvent> load(Path path, ZoneId zone) throws IOException
+    {
+        List<CountDownEvent> events = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            int number = 0;
+            while ((line = reader.readLine()) != null) {
+                number++;
+                int comment = line.indexOf('#');
+                if (comment >= 0) {
+                    line = line.substring(0, comment);
+                }
+                line = line.trim();
+                if (line.isEmpty()) {
+                    continue;
+                }
+                try {
+                    events.add(parse(line, zone));
+                } catch (IllegalArgumentException | DateTimeParseException e) {
+                    throw new IOException(path + ":" + number + ": " + e.getMessage(), e);
+                }
+            }
+        }
+        return events;
+    }
+
+    static CountDownEvent parse(String line, ZoneId zone)
+    {
+        String[] parts = line.split("\\s+", 3);
+        if (parts.length < 3) {
+            throw new IllegalArgumentException("「時刻 動作 名前」の形で書いてください");
+        }
+        Set<Action> actions = EnumSet.noneOf(Action.class);
+        for (String action : parts[1].split(",")) {
+            // 何もしない予定は「-」で書ける
+            if (!action.isEmpty() && !action.equals("-")) {
+                actions.add(Action.valueOf(action.toUpperCase(Locale.ROOT)));
+            }
+        }
+        return new CountDownEvent(parts[2], parseTime(parts[0], zone), actions);
+    }
+
+    static long parseTime(String text, ZoneId zone)
+    {
+        if (text.indexOf('T') < 0) {
+            return LocalDate.parse(text).atStartOfDay(zone).toInstant().toEpochMilli();
+        }
+        char last = text.charAt(text.length() - 1);
+        int offset = Math.max(text.lastIndexOf('+'), text.lastIndexOf('-'));
+        if (last == 'Z' || offset > text.indexOf('T')) {
+            return OffsetDateTime.parse(text).toInstant().toEpochMilli();
+        }
+        return LocalDateTime.parse(text).atZone(zone).toInstant().toEpochMilli();
+    }
+
+    @Override
+    public String toString()
+    {
+        return name + " " + Instant.ofEpochMilli(timeMillis) + " " + actions;
+    }
+}
@@ -0,0 +1,403 @@
+package net.hinyari.gohancountdown;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+/**
+ * tickの遅れ、EDTへの反映の遅れ、時刻取得のRTTとオフセットの履歴、同期の成否、時計のモードを集める
+ * JMXのMBeanとして登録でき、MetricsEndpointからテキストでも取得できる
+ */
+public class CountDownMetrics implements CountDownMetricsMBean
+{
+    private static final AsyncLogger logger = AsyncLogger.getLogger(CountDownMetrics.class);
+
+    public static final String OBJECT_NAME = "net.hinyari.gohancountdown:type=CountDownMetrics";
+    // オフセットとRTTの履歴の件数
+    private static final int HISTORY = 64;
+
+    private static final CountDownMetrics instance = new CountDownMetrics();
+
+    public static CountDownMetrics getInstance()
+    {
+        return instance;
+    }
+
+    private final LatencyHistogram publishLatency = new LatencyHistogram();
+    private final LatencyHistogram syncRtt = new LatencyHistogram();
+    private final AtomicLong droppedFrames = new AtomicLong();
+    private final AtomicLong syncSuccess = new AtomicLong();
+    private final AtomicLong syncFailure = new AtomicLong();
+
+    // 直近のオフセットとRTTのリングバッファ
+    private final long[] offsetHistory = new long[HISTORY];
+    private final long[] rttHistory = new long[HISTORY];
+    private int historyCount;
+
+    private volatile boolean ntpLoad;
+    private volatile TickStatistics tickStatistics;
+    private volatile ClockModel clock;
+    private volatile ClockSampler sampler;
+    private volatile ClockDiscipline discipline;
+    private volatile EventScheduler events;
+    private volatile boolean registered;
+
+    CountDownMetrics()
+    {
+    }
+
+    /**
+     * プラットフォームのMBeanサーバに登録する。2回目以降は何もしない
+     */
+    public synchronized void register()
+    {
+        if (registered) {
+            return;
+        }
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            server.registerMBean(this, new ObjectName(OBJECT_NAME));
+            registered = true;
+        } catch (JMException e) {
+            logger.log(Level.WARNING, "MBeanの登録に失敗しました", e);
+        }
+    }
+
+    void bind(TickStatistics tickStatistics, ClockModel clock, ClockSampler sampler, ClockDiscipline discipline)
+    {
+        this.tickStatistics = tickStatistics;
+        this.clock = clock;
+        this.sampler = sampler;
+        this.discipline = discipline;
+    }
+
+    void bindEvents(EventScheduler events)
+    {
+        this.events = events;
+    }
+
+    void setNtpLoad(boolean ntpLoad)
+    {
+        this.ntpLoad = ntpLoad;
+    }
+
+    void recordPublishLatency(long millis)
+    {
+        publishLatency.record(millis);
+    }
+
+    void recordDroppedFrame()
+    {
+        droppedFrames.incrementAndGet();
+    }
+
+    void recordSync(TimeSample sample)
+    {
+        syncSuccess.incrementAndGet();
+        syncRtt.record(sample.getDelay());
+        synchronized (offsetHistory) {
+            int index = historyCount++ % HISTORY;
+            offsetHistory[index] = sample.getOffset();
+            rttHistory[index] = sample.getDelay();
+        }
+    }
+
+    void recordSyncFailure()
+    {
+        syncFailure.incrementAndGet();
+    }
+
+    public LatencyHistogram getPublishLatency()
+    {
+        return publishLatency;
+    }
+
+    @Override
+    public String getClockMode()
+    {
+        return ntpLoad ? "NTP" : "SYSTEM";
+    }
+
+    @Override
+    public long getTickCount()
+    {
+        TickStatistics s = tickStatistics;
+        return s == null ? 0 : s.getCount();
+    }
+
+    @Override
+    public long getLateTickCount()
+    {
+        TickStatistics s = tickStatistics;
+        return s == null ? 0 : s.getLateCount();
+    }
+
+    @Override
+    public long getTickLatenessP50()
+    {
+        TickStatistics s = tickStatistics;
+        return s == null ? 0 : s.getHistogram().getPercentile(0.5);
+    }
+
+    @Override
+    public long getTickLatenessP99()
+    {
+        TickStatistics s = tickStatistics;
+        return s == null ? 0 : s.getHistogram().getPercentile(0.99);
+    }
+
+    @Override
+    public long getTickLatenessMax()
+    {
+        TickStatistics s = tickStatistics;
+        return s == null ? 0 : s.getMaxLateness();
+    }
+
+    @Override
+    public double getTickJitter()
+    {
+        TickStatistics s = tickStatistics;
+        return s == null ? 0 : s.getJitter();
+    }
+
+    @Override
+    public long getPublishLatencyP50()
+    {
+        return publishLatency.getPercentile(0.5);
+    }
+
+    @Override
+    public long getPublishLatencyP99()
+    {
+        return publishLatency.getPercentile(0.99);
+    }
+
+    @Override
+    public long getPublishLatencyMax()
+    {
+        return publishLatency.getMax();
+    }
+
+    @Override
+    public int getPendingEvents()
+    {
+        EventScheduler e = events;
+        return e == null ? 0 : e.size();
+    }
+
+    @Override
+    public long getEventLatencyP99()
+    {
+        EventScheduler e = events;
+        return e == null ? 0 : e.getLatency().getPercentile(0.99);
+    }
+
+    @Override
+    public long getEventLatencyMax()
+    {
+        EventScheduler e = events;
+        return e == null ? 0 : e.getLatency().getMax();
+    }
+
+    @Override
+    public long getDroppedFrames()
+    {
+        return droppedFrames.get();
+    }
+
+    @Override
+    public long getSyncSuccessCount()
+    {
+        return syncSuccess.get();
+    }
+
+    @Override
+    public long getSyncFailureCount()
+    {
+        return syncFailure.get();
+    }
+
+    @Override
+    public long getLastOffset()
+    {
+        long[] history = getOffsetHistory();
+        return history.length == 0 ? 0 : history[history.length - 1];
+    }
+
+    @Override
+    public long getLastRtt()
+    {
+        long[] history = getRttHistory();
+        return history.length == 0 ? 0 : history[history.length - 1];
+    }
+
+    @Override
+    public long getSyncRttP99()
+    {
+        return syncRtt.getPercentile(0.99);
+    }
+
+    @Override
+    public double getFrequencyPpm()
+    {
+        ClockModel c = clock;
+        return c == null ? 0 : c.getFrequency();
+    }
+
+    /**
+     * 次に同期するまでの間隔(ms)
+     */
+    @Override
+    public long getPollInterval()
+    {
+        ClockDiscipline d = discipline;
+        return d == null ? 0 : d.getInterval();
+    }
+
+    @Override
+    public double getDriftPpm()
+    {
+        ClockDiscipline d = discipline;
+        return d == null ? 0 : d.getDrift();
+    }
+
+    /**
+     * 直近のオフセット(ms)。古い順
+     */
+    @Override
+    public long[] getOffsetHistory()
+    {
+        return history(offsetHistory);
+    }
+
+    /**
+     * 直近のRTT(ms)。古い順
+     */
+    @Override
+    public long[] getRttHistory()
+    {
+        return history(rttHistory);
+    }
+
+    private long[] history(long[] ring)
+    {
+        synchronized (offsetHistory) {
+            int n = Math.min(historyCount, HISTORY);
+            long[] result = new long[n];
+            int start = historyCount - n;
+            for (int i = 0; i < n; i++) {
+                result[i] = ring[(start + i) % HISTORY];
+            }
+            return result;
+        }
+    }
+
+    @Override
+    public String[] getSources()
+    {
+        ClockSampler s = sampler;
+        if (s == null) {
+            return new String[0];
+        }
+        List<SourceStatistics> list = s.getStatistics();
+        String[] result = new String[list.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = list.get(i).toString();
+        }
+        return result;
+    }
+
+    /**
+     * Prometheusのテキスト形式で出力する
+     */
+    @Override
+    public String toText()
+    {
+        StringBuilder sb = new StringBuilder(2048);
+        gauge(sb, "gohancountdown_clock_ntp", "1 if the corrected (NTP) time is displayed", ntpLoad ? 1 : 0);
+        counter(sb, "gohancountdown_ticks_total", "ticks executed", getTickCount());
+        counter(sb, "gohancountdown_late_ticks_total", "ticks woken " + TickStatistics.LATE_THRESHOLD
+                + "ms or more after the second edge", getLateTickCount());
+        TickStatistics ts = tickStatistics;
+        if (ts != null) {
+            summary(sb, "gohancountdown_tick_lateness_ms", "tick wake-up lateness", ts.getHistogram());
+        }
+        gauge(sb, "gohancountdown_tick_jitter_ms", "smoothed tick jitter", getTickJitter());
+        summary(sb, "gohancountdown_publish_latency_ms", "tick to EDT render latency", publishLatency);
+        EventScheduler e = events;
+        if (e != null) {
+            gauge(sb, "gohancountdown_events_pending", "scheduled events not fired yet", e.size());
+            summary(sb, "gohancountdown_event_latency_ms", "event deadline to fire latency", e.getLatency());
+        }
+        counter(sb, "gohancountdown_dropped_frames_total", "snapshots superseded before rendering", getDroppedFrames());
+        counter(sb, "gohancountdown_sync_success_total", "successful time syncs", getSyncSuccessCount());
+        counter(sb, "gohancountdown_sync_failure_total", "failed time syncs", getSyncFailureCount());
+        summary(sb, "gohancountdown_sync_rtt_ms", "time source round-trip delay", syncRtt);
+        gauge(sb, "gohancountdown_clock_offset_ms", "last measured offset from the system clock", getLastOffset());
+        gauge(sb, "gohancountdown_clock_frequency_ppm", "frequency correction applied to the clock", getFrequencyPpm());
+        gauge(sb, "gohancountdown_clock_drift_ppm", "offset drift against the system clock by regression", getDriftPpm());
+        gauge(sb, "gohancountdown_poll_interval_seconds", "current resync interval", getPollInterval() / 1000);
+        ClockSampler s = sampler;
+        if (s != null) {
+            sb.append("# HELP gohancountdown_source_rtt_ms smoothed round-trip delay per time source\n");
+            sb.append("# TYPE gohancountdown_source_rtt_ms gauge\n");
+            for (SourceStatistics source : s.getStatistics()) {
+                sb.append("gohancountdown_source_rtt_ms{server=\"").append(source.getServer()).append("\"} ")
+                        .append(source.getRtt()).append('\n');
+            }
+            sb.append("# HELP gohancountdown_source_reach reach register per time source\n");
+            sb.append("# TYPE gohancountdown_source_reach gauge\n");
+            for (SourceStatistics source : s.getStatistics()) {
+                sb.append("gohancountdown_source_reach{server=\"").append(source.getServer()).append("\"} ")
+                        .append(source.getReach()).append('\n');
+            }
+        }
+        return sb.toString();
+    }
+
+    private static void gauge(StringBuilder sb, String name, String help, double value)
+    {
+        metric(sb, name, help, "gauge");
+        sb.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void gauge(StringBuilder sb, String name, String help, long value)
+    {
+        metric(sb, name, help, "gauge");
+        sb.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void counter(StringBuilder sb, String name, String help, long value)
+    {
+        metric(sb, name, help, "counter");
+        sb.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void summary(StringBuilder sb, String name, String help, LatencyHistogram histogram)
+    {
+        metric(sb, name, help, "summary");
+        for (double q : new double[]{0.5, 0.9, 0.99}) {
+            sb.append(name).append("{quantile=\"").append(q).append("\"} ")
+                    .append(histogram.getPercentile(q)).append('\n');
+        }
+        sb.append(name).append("_sum ").append((long) (histogram.getMean() * histogram.getCount())).append('\n');
+        sb.append(name).append("_count ").append(histogram.getCount()).append('\n');
+    }
+
+    private static void metric(StringBuilder sb, String name, String help, String type)
+    {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    @Override
+    public String toString()
+    {
+        return "CountDownMetrics" + Arrays.toString(getSources());
+    }
+}
@@ -0,0 +1,59 @@
+package net.hinyari.gohancountdown;
+
+/**
+ * JMXで公開する計測値
+ */
+public interface CountDownMetricsMBean
+{
+    String getClockMode();
+
+    long getTickCount();
+
+    long getLateTickCount();
+
+    long getTickLatenessP50();
+
+    long getTickLatenessP99();
+
+    long getTickLatenessMax();
+
+    double getTickJitter();
+
+    long getPublishLatencyP50();
+
+    long getPublishLatencyP99();
+
+    long getPublishLatencyMax();
+
+    int getPendingEvents();
+
+    long getEventLatencyP99();
+
+    long getEventLatencyMax();
+
+    long getDroppedFrames();
+
+    long getSyncSuccessCount();
+
+    long getSyncFailureCount();
+
+    long getLastOffset();
+
+    long getLastRtt();
+
+    long getSyncRttP99();
+
+    double getFrequencyPpm();
+
+    long getPollInterval();
+
+    double getDriftPpm();
+
+    long[] getOffsetHistory();
+
+    long[] getRttHistory();
+
+    String[] getSources();
+
+    String toText();
+}
@@ -0,0 +1,106 @@
+package net.hinyari.gohancountdown;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+/**
+ * カウントダウンの目標時刻
+ * 固定日時と「今年の元日」「来年の元日」のような年単位で繰り上がる目標を扱う
+ */
+public final class CountDownTarget
+{
+    private final LocalDateTime dateTime;
+    private final int yearOffset;
+
+    private CountDownTarget(LocalDateTime dateTime, int yearOffset)
+    {
+        this.dateTime = dateTime;
+        this.yearOffset = yearOffset;
+    }
+
+    /**
+     * 固定日時の目標
+     */
+    public static CountDownTarget at(LocalDateTime dateTime)
+    {
+        if (dateTime == null) {
+            throw new IllegalArgumentException("dateTime is null");
+        }
+        return new CountDownTarget(dateTime, 0);
+    }
+
+    /**
+     * 現在の年から数えた元日の目標
+     * 0で今年の元日、1で来年の元日になり、年が変わると自動的に繰り上がる
+     */
+    public static CountDownTarget newYear(int yearOffset)
+    {
+        return new CountDownTarget(null, yearOffset);
+    }
+
+    /**
+     * 来年の元日
+     */
+    public static CountDownTarget nextNewYear()
+    {
+        return newYear(1);
+    }
+
+    /**
+     * 設定文字列から目標を作る
+     * "2019-01-01T00:00:00"、"2019-01-01"、"year"、"year+1" の形式を受け付ける
+     */
+    public static CountDownTarget parse(String spec)
+    {
+        String s = spec.trim();
+        if (s.startsWith("year")) {
+            String rest = s.substring(4).trim();
+            if (rest.isEmpty()) {
+                return newYear(0);
+            }
+            try {
+                return newYear(Integer.parseInt(rest.startsWith("+") ? rest.substring(1) : rest));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("不正な目標指定: " + spec, e);
+            }
+        }
+        try {
+            if (s.indexOf('T') >= 0) {
+                return at(LocalDateTime.parse(s, DateTimeFormatter.ISO_LOCAL_DATE_TIME));
+            }
+            return at(LocalDate.parse(s, DateTimeFormatter.ISO_LOCAL_DATE).atStartOfDay());
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("不正な目標指定: " + spec, e);
+        }
+    }
+
+    public boolean isRolling()
+    {
+        return dateTime == null;
+    }
+
+    /**
+     * 指定したゾーンでの目標時刻をエポックミリ秒で返す
+     */
+    public long resolve(long nowMillis, ZoneId zone)
+    {
+        if (dateTime != null) {
+            return dateTime.atZone(zone).toInstant().toEpochMilli();
+        }
+        int year = LocalDateTime.ofInstant(Instant.ofEpochMilli(nowMillis), zone).getYear();
+        return LocalDate.of(year + yearOffset, 1, 1).atStartOfDay(zone).toInstant().toEpochMilli();
+    }
+
+    @Override
+    public String toString()
+    {
+        if (dateTime != null) {
+            return dateTime.toString();
+        }
+        return yearOffset == 0 ? "year" : "year+" + yearOffset;
+    }
+}
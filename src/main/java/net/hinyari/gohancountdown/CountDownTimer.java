@@ -1,200 +1,382 @@
 package net.hinyari.gohancountdown;
 
-import org.apache.commons.net.ntp.NTPUDPClient;
-import org.apache.commons.net.ntp.TimeInfo;
-import org.jsoup.Jsoup;
-import org.jsoup.nodes.Document;
-import org.jsoup.nodes.Element;
-import org.jsoup.select.Elements;
-
 import java.io.IOException;
 import java.net.UnknownHostException;
-import java.time.Duration;
-import java.time.Instant;
-import java.time.LocalDateTime;
-import java.time.ZoneId;
-import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
-import java.util.logging.Logger;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
 
 public class CountDownTimer
 {
-    private GohanCountDown main;
+    private static final AsyncLogger logger = AsyncLogger.getLogger(CountDownTimer.class);
+    // tickごとの時刻のログは1分に1回だけ出す
+    private final LogRateLimiter tickLogLimit = new LogRateLimiter(60_000L);
+
+    // NTP時刻を使う場合は同期した時点を基準に単調増加する時計から現在時刻を求める
+    private final ClockModel clock;
+    // 同期した時点での補正済み時刻とシステム時刻の差
+    private volatile long syncedOffset;
+    private volatile boolean isNTPLoad = false;
+    // 一度でも時刻を取得できたかどうか
+    private volatile boolean isSynced = false;
+    // システム時刻。シミュレーションでは仮想の時計に差し替える
+    private final LongSupplier systemClock;
+    // 時刻源。先頭から順に試し、最初に取得できたものを使う。空なら同期しない
+    private final List<TimeSource> sources;
+    // SNTPのサーバすべてに同時に問い合わせる時刻源。使わない設定ならnull
+    private final ClockSampler sampler;
+    // 同じマシンの他のインスタンスと同期した結果を共有する。使えない場合はnull
+    private final SharedClockSegment shared;
+
+    // 時計のずれ方から次に再取得するまでの間隔を決める
+    private final ClockDiscipline discipline = new ClockDiscipline();
+    private volatile long nextSyncAt;
+    // 表示が見えない間のtickの間隔。目標直前の再取得に間に合うようClockDiscipline.DEFAULT_LEADと同じにする
+    private static final long HIDDEN_PERIOD = 60_000L;
+    // 同期した時点から時計がこれ以上ずれたら再取得する(ms)
+    private static final long RESYNC_THRESHOLD = 1000L;
+
+    private final ScheduledExecutorService service;
+    private final SecondAlignedScheduler scheduler;
+    // 時刻の取得はtickのスレッドを止めないよう別のスレッドで行う
+    private final Executor syncService;
+    private final AtomicBoolean syncing = new AtomicBoolean();
+
+    // 経過時間の起点、カウントダウンの目標、その次の目標
+    private static final int TARGET_FROM = 0;
+    private static final int TARGET_UNTIL = 1;
+    private static final int TARGET_NEXT = 2;
+    private static final String DEFAULT_TARGETS = "2018-01-01,2019-01-01,2020-01-01";
+
+    private final CountDownEngine engine = createEngine();
+    // タイムゾーンごとの元日。使わない設定ならnull
+    private final WorldNewYearQueue world;
 
-    private long rawTime;
-    private boolean isNTPLoad = false;
-    private NTPUDPClient ntpClient;
-    private TimeInfo timeInfo;
-    private final String ntpAddress = "http://ntp-a1.nict.go.jp/cgi-bin/jst";
+    // 表示の出力先
+    private final TickListener listener;
+    private final CountDownMetrics metrics = CountDownMetrics.getInstance();
 
-    private ScheduledExecutorService service;
+    // 状態表示。変わった時だけ差し替え、tickごとの表示内容と一緒に渡す
+    private volatile String server;
+    private volatile String appStatus;
+    private volatile String errorTime;
 
     public CountDownTimer(GohanCountDown main)
     {
-        // メインクラスのインスタンス読み込み
-        this.main = main;
-        try {
-            // NTP時刻を取得する
-            long ntptime = getNTPTime();
-            
-            // システム時間を取得する
-            long systemtime = System.currentTimeMillis();
-            // 誤差
-            long errortime = ntptime - systemtime;
-            main.getLabel_errortime().setText(String.valueOf(errortime) + "ms");
-            log("systemtime " + systemtime);
-            log("ntptime " + ntptime);
-            log("errortime " + errortime);
-            
-            // NTPで取得した時間とシステム時間の差が1000ms以内だった場合
-            // 誤差が1000ms以内であるのでシステム時間を使用する
-            if (errortime < 1000 && errortime > -1000) {
-                main.getLabel_server().setText("NTP時刻との誤差が小さいため");
-                main.getLabel_appstatus().setText("システム時刻を使用します");
-                // 特に意味のないような気がする
-                isNTPLoad = false;
-            } else {
-                // NTP時間を利用する
-                isNTPLoad = true;
+        this(new SwingTickPublisher(main));
+    }
+
+    /**
+     * @param listener tickごとの表示内容の出力先。画面を持たない場合はBroadcastServerなど
+     */
+    public CountDownTimer(TickListener listener)
+    {
+        this(listener, System::currentTimeMillis, System::nanoTime, Executors.newSingleThreadScheduledExecutor(),
+                Executors.newSingleThreadExecutor(r ->
+                {
+                    Thread thread = new Thread(r, "CountDownTimer-sync");
+                    thread.setDaemon(true);
+                    return thread;
+                }), TimeSource.fromSystemProperties(), SharedClockSegment.fromSystemProperties());
+    }
+
+    /**
+     * 時計とスレッドを外から渡す。VirtualSchedulerと組み合わせれば実時間を待たずにtickを流せる
+     *
+     * @param systemClock システム時刻(エポックミリ秒)
+     * @param nanoClock   単調時計(ns)。時刻源が返すTimeSampleのgetLocalNanos()と同じ時計であること
+     * @param service     tickを実行するスレッド
+     * @param syncService 時刻の取得とMBeanの登録を実行するスレッド
+     * @param sources     時刻源。空なら同期せずにsystemClockをそのまま使う
+     * @param shared      同期した結果の共有先。使わないならnull
+     */
+    public CountDownTimer(TickListener listener, LongSupplier systemClock, LongSupplier nanoClock,
+                          ScheduledExecutorService service, Executor syncService,
+                          List<TimeSource> sources, SharedClockSegment shared)
+    {
+        this.listener = listener;
+        this.systemClock = systemClock;
+        this.clock = new ClockModel(systemClock, nanoClock);
+        this.service = service;
+        this.syncService = syncService;
+        this.sources = sources;
+        this.sampler = findSampler(sources);
+        this.shared = shared;
+        this.world = WorldNewYearQueue.fromSystemProperties(systemClock.getAsLong());
+        // 時刻を取得するまではシステム時刻で表示しておく
+        appStatus = sources.isEmpty() ? "システム時刻を使用します" : "時刻を取得中";
+        // 他のインスタンスが最近同期していればその結果ですぐに始める
+        boolean warm = warmStart();
+        // 秒の境目ごとに表示を更新する
+        scheduler = new SecondAlignedScheduler(service, this::currentTimeMillis, this::tick);
+        scheduler.start();
+        metrics.bind(scheduler.getStatistics(), clock, sampler, discipline);
+        // MBeanの登録は表示に関係ないので時刻取得のスレッドで行う
+        syncService.execute(metrics::register);
+        // NTP時刻を取得してどちらの時刻を使うか決める
+        if (!warm) {
+            requestSync();
+        }
+    }
+
+    private boolean warmStart()
+    {
+        if (shared == null) {
+            return false;
+        }
+        long now = systemClock.getAsLong();
+        TimeSample sample = shared.read(now);
+        if (sample == null) {
+            return false;
+        }
+        logger.log(Level.INFO, "共有ファイルの結果から始めます ", sample);
+        nextSyncAt = now + discipline.update(sample);
+        apply(sample);
+        isSynced = true;
+        metrics.setNtpLoad(isNTPLoad);
+        return true;
+    }
+
+    /**
+     * 表示に使う現在時刻
+     */
+    public long currentTimeMillis()
+    {
+        return isNTPLoad ? clock.currentTimeMillis() : systemClock.getAsLong();
+    }
+
+    /**
+     * 表示が見えているかどうかを伝える
+     * 見えない間はtickの間隔を延ばし、時刻の再取得の確認だけを行う。見えるようになったらすぐに表示を更新する
+     * 時刻は単調時計から求めているので、間隔を延ばしている間もずれない
+     */
+    public void setDisplayVisible(boolean visible)
+    {
+        if (visible) {
+            scheduler.setPeriod(1000L);
+            scheduler.wakeNow();
+        } else {
+            scheduler.setPeriod(HIDDEN_PERIOD);
+        }
+        logger.log(Level.FINE, visible ? "表示を再開します" : "表示を休止します");
+    }
+
+    public ClockSampler getSampler()
+    {
+        return sampler;
+    }
+
+    public TickStatistics getTickStatistics()
+    {
+        return scheduler == null ? null : scheduler.getStatistics();
+    }
+
+    private void tick(long now)
+    {
+        reloadDisplay(now);
+        // スリープ復帰などで単調時計とシステム時刻の関係が崩れたらすぐに再取得する
+        if (isNTPLoad && Math.abs(clock.getOffset() - syncedOffset) >= RESYNC_THRESHOLD) {
+            logger.log(Level.WARNING, "時計のずれを検出しました(ms) ", clock.getOffset() - syncedOffset);
+            discipline.reset();
+            // nextSyncAtはシステム時刻で持つので、補正済みのnowではなくシステム時刻で今にする
+            nextSyncAt = systemClock.getAsLong();
+        }
+        long system = systemClock.getAsLong();
+        // 目標時刻の直前には間隔にかかわらず取り直す
+        if (system >= nextSyncAt || discipline.isSampleDueBefore(nextTarget(now) - (now - system), system)) {
+            requestSync();
+        }
+    }
+
+    /**
+     * まだ来ていない最も近い目標時刻。なければLong.MAX_VALUE
+     */
+    private long nextTarget(long now)
+    {
+        long next = Long.MAX_VALUE;
+        for (int i = 0; i < engine.size(); i++) {
+            long target = engine.getTargetMillis(i);
+            if (target > now && target < next) {
+                next = target;
             }
-            log("isNTPLoad " + isNTPLoad);
-            // スレッドを立てる
-            service = Executors.newSingleThreadScheduledExecutor();
-            // 250ms間隔でスレッドを実行する
-            service.scheduleAtFixedRate(this::reloadDisplay,
-                    0, 500, TimeUnit.MILLISECONDS);
-            
-        } catch (UnknownHostException e) {
-            main.getLabel_server().setText("不明なホスト名");
-            e.printStackTrace();
-            ntpClient.close();
-        } catch (IOException e) {
-            main.getLabel_server().setText("接続時にエラー");
-            e.printStackTrace();
-            ntpClient.close();
         }
+        return next;
     }
-    
-    private int time = 60;
 
-    private void reloadDisplay()
+    /**
+     * 時刻の取得を別スレッドで始める。取得中であれば何もしない
+     */
+    private void requestSync()
     {
-        // NTPクライアントが
-        if (isNTPLoad) {
+        if (sources.isEmpty() || !syncing.compareAndSet(false, true)) {
+            return;
+        }
+        // 取得が終わるまでに次の時刻が来ないよう仮に決めておく
+        nextSyncAt = systemClock.getAsLong() + discipline.getInterval();
+        syncService.execute(() ->
+        {
             try {
-                // 60回目（30秒目の試行）
-                if (time % 60 == 0) {
-                    main.getLabel_appstatus().setText("取得中");
-                    rawTime = getNTPTime();
-                    time = time - 60;
-                    long errortime = rawTime - System.currentTimeMillis();
-                    main.getLabel_server().setText(ntpAddress);
-                    log("int time " + time);
-                    
-                    // NTPで取得した時間とシステム時間の差が1000ms以内だった場合
-                    // 誤差が1000ms以内であるのでシステム時間を使用する
-                    if (errortime < 1000 && errortime > -1000) {
-                        main.getLabel_server().setText("NTP時刻との誤差が小さいため");
-                        main.getLabel_appstatus().setText("システム時刻を使用します");
-                        main.getLabel_errortime().setText(String.valueOf(errortime));
-                        isNTPLoad = false;
-                    }
-                } else {
-                    main.getLabel_appstatus().setText("時刻を" + divide60(time) + "秒後に再取得します…");
-                    if (time % 2 == 0) rawTime  = rawTime + 1000;
-                    log("int time " + time);
+                if (isNTPLoad) {
+                    appStatus = "取得中";
                 }
+                syncTime();
+                isSynced = true;
+                metrics.setNtpLoad(isNTPLoad);
+                logger.log(Level.INFO, isNTPLoad ? "NTP時刻を使用します" : "システム時刻を使用します");
+            } catch (UnknownHostException e) {
+                metrics.recordSyncFailure();
+                nextSyncAt = systemClock.getAsLong() + discipline.onFailure(systemClock.getAsLong());
+                server = "不明なホスト名";
+                appStatus = "システム時刻を使用します";
+                logger.log(Level.WARNING, "時刻の取得に失敗しました", e);
             } catch (IOException e) {
-                e.printStackTrace();
-                main.getLabel_appstatus().setText("接続時にエラー");
+                metrics.recordSyncFailure();
+                nextSyncAt = systemClock.getAsLong() + discipline.onFailure(systemClock.getAsLong());
+                server = "接続時にエラー";
+                appStatus = isNTPLoad ? "接続時にエラー" : "システム時刻を使用します";
+                logger.log(Level.WARNING, "時刻の取得に失敗しました", e);
+            } finally {
+                syncing.set(false);
             }
-            time++;
+        });
+    }
+
+    private void syncTime() throws IOException
+    {
+        // ネットワークで取得するのは代表の1インスタンスだけで、他は共有ファイルから読む
+        boolean leader = shared == null || shared.tryLead();
+        TimeSample sample = leader ? null : shared.read(systemClock.getAsLong());
+        if (sample == null) {
+            // NTP時刻を取得する
+            sample = fetchTime();
+        }
+        metrics.recordSync(sample);
+        // 時計の周波数の補正にはこの結果まで含めた回帰のずれ方を使うので、先に取り込む
+        nextSyncAt = sample.getLocalTimeMillis() + discipline.update(sample);
+        apply(sample);
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("discipline " + discipline);
+        }
+        if (leader && shared != null) {
+            shared.publish(sample, clock.getFrequency());
+        }
+    }
+
+    /**
+     * 取得した結果からどちらの時刻を使うか決める
+     */
+    private void apply(TimeSample sample)
+    {
+        // 誤差
+        long errortime = sample.getOffset();
+        errorTime = errortime + "ms";
+        server = sample.getServer();
+        logger.log(Level.INFO, "sample ", sample);
+
+        // NTPで取得した時間とシステム時間の差が1000ms以内だった場合
+        // 誤差が1000ms以内であるのでシステム時間を使用する
+        if (errortime < 1000 && errortime > -1000) {
+            server = "NTP時刻との誤差が小さいため";
+            appStatus = "システム時刻を使用します";
+            isNTPLoad = false;
         } else {
-            rawTime = System.currentTimeMillis();
+            // NTP時間を利用する
+            // 履歴が短いうちの回帰は誤差が大きいので、それまでの補正を続ける
+            clock.update(sample, discipline.isDriftSettled() ? discipline.getDrift() : clock.getFrequency());
+            syncedOffset = clock.getOffset();
+            appStatus = null;
+            isNTPLoad = true;
         }
+    }
+
+    private void reloadDisplay(long rawTime)
+    {
+        // 再取得までの秒数は時計から求める
+        int resyncSeconds = isNTPLoad
+                ? (int) Math.max(0, Math.floorDiv(nextSyncAt - systemClock.getAsLong() + 999, 1000L))
+                : -1;
+
+        logger.log(Level.INFO, tickLogLimit, isNTPLoad ? "最終NTP時刻 " : "システム時刻 ", rawTime);
         
-        log(((isNTPLoad ? "最終NTP時刻 " : "システム時刻 ") + rawTime));
-        
-        Instant nowTimeInstance = Instant.ofEpochMilli(rawTime);
-        // 現在時刻を埋め込む
-        LocalDateTime ldt = LocalDateTime.ofInstant(nowTimeInstance, ZoneId.systemDefault());
-        main.getLabel_nowtime().setText(DateTimeFormatter.ofPattern("yyyy/MM/dd HH:mm:ss").format(ldt));
-
-        // LocalDateTimeを取得する
-        Instant firstDayof2018 = LocalDateTime.parse("2018-01-01T00:00:00", DateTimeFormatter.ISO_DATE_TIME)
-                .toInstant(ZoneId.systemDefault().getRules().getOffset(Instant.EPOCH));
-        Instant firstDayof2019 = LocalDateTime.parse("2019-01-01T00:00:00", DateTimeFormatter.ISO_DATE_TIME)
-                .toInstant(ZoneId.systemDefault().getRules().getOffset(Instant.EPOCH));
-        Instant firstDayof2020 = LocalDateTime.parse("2020-01-01T00:00:00", DateTimeFormatter.ISO_DATE_TIME)
-                .toInstant(ZoneId.systemDefault().getRules().getOffset(Instant.EPOCH));
+        // 表示はEDT側でまとめて反映する
+        WorldNewYearQueue.Status worldStatus = null;
+        if (world != null) {
+            world.advance(rawTime);
+            worldStatus = world.getStatus();
+        }
+        listener.onTick(compute(engine, rawTime, server, appStatus, resyncSeconds, errorTime, worldStatus));
+    }
+
+    /**
+     * 1回のtickの表示内容を計算する
+     */
+    static TickSnapshot compute(CountDownEngine engine, long rawTime,
+                                String server, String appStatus, int resyncSeconds, String errorTime)
+    {
+        return compute(engine, rawTime, server, appStatus, resyncSeconds, errorTime, null);
+    }
+
+    static TickSnapshot compute(CountDownEngine engine, long rawTime, String server, String appStatus,
+                                int resyncSeconds, String errorTime, WorldNewYearQueue.Status world)
+    {
+        // 目標時刻は必要な時だけ解決し直す
+        engine.update(rawTime);
 
         // 時刻の差をそれぞれ取得する
-        Duration durationunt2019 = Duration.between(nowTimeInstance, firstDayof2019);
-        Duration durationfrom2019 = Duration.between(firstDayof2019, nowTimeInstance);
-        Duration durationfrom2018 = Duration.between(firstDayof2018, nowTimeInstance);
-        Duration durationunt2020 = Duration.between(nowTimeInstance, firstDayof2020);
-        long lunt2019seconds = durationunt2019.getSeconds();
-
-        // JLabelに文字を置く
-        main.getLabel_unt2019ss().setText(lunt2019seconds <= 0 ? "HAPPY NEW YEAR" : String.valueOf(lunt2019seconds));
-
-        // 2018年内
-        if (lunt2019seconds >= 0) {
-            main.getLabel_untdays().setText(String.format("%03d", lunt2019seconds / 86400));
-            main.getLabel_unt2019h().setText(String.format("%02d", lunt2019seconds / 3600 - ((lunt2019seconds / 86400 * 24))));
-            main.getLabel_unt2019m().setText(String.format("%02d", (lunt2019seconds / 60) % 60));
-            main.getLabel_unt2019s().setText(String.format("%02d", lunt2019seconds % 60));
-            main.getLabel_from2018ss().setText(String.valueOf(durationfrom2018.getSeconds()));
-        } else {    // 2019年後
-            main.getLabel_untdays().setText("000");
-            main.getLabel_unt2019h().setText("00");
-            main.getLabel_unt2019m().setText("00");
-            main.getLabel_unt2019s().setText("00");
-            main.getLabel_yearsfrom().setText("2019年からの経過時間");
-            main.getLabel_from2018ss().setText(String.valueOf(durationfrom2019.getSeconds()));
-        }
-        main.getLabel_unt2020ss().setText(String.valueOf(durationunt2020.getSeconds()));
+        long lunt2019seconds = engine.secondsUntil(TARGET_UNTIL, rawTime);
+        // 目標を過ぎたら経過時間の起点を目標に切り替える
+        long sinceSeconds = engine.secondsSince(lunt2019seconds >= 0 ? TARGET_FROM : TARGET_UNTIL, rawTime);
+
+        return new TickSnapshot(rawTime, engine.getZone(), engine.getTargetMillis(TARGET_UNTIL), lunt2019seconds,
+                sinceSeconds, engine.secondsUntil(TARGET_NEXT, rawTime), server, appStatus, resyncSeconds, errorTime,
+                world);
     }
     
-    private String divide60(int i) {
-        // 0回目の試行だった場合30秒後を返す
-        if (i == 0 || i == 1) return "30";
-        
-        // 2で割り切れない奇数
-        if (i % 2 == 1) {
-            i--;
+    static CountDownEngine createEngine()
+    {
+        // -Dgohancountdown.targets=year,year+1,year+2 のように指定できる
+        String[] specs = System.getProperty("gohancountdown.targets", DEFAULT_TARGETS).split(",");
+        if (specs.length < 3) {
+            throw new IllegalArgumentException("gohancountdown.targets には3つの目標を指定してください");
         }
-
-        i = i / 2;
-        
-        log("divide 60 " + i);
-        
-        return String.valueOf(30 - i);
+        CountDownTarget[] targets = new CountDownTarget[specs.length];
+        for (int i = 0; i < specs.length; i++) {
+            targets[i] = CountDownTarget.parse(specs[i]);
+        }
+        return new CountDownEngine(targets);
     }
-        
-    private void log(Object msg)
+
+    /**
+     * 時刻源を順に試す。NTPが通らない環境でもHTTPの時刻源で取得できる
+     *
+     * @throws IOException すべての時刻源で失敗した場合。最後の失敗を投げる
+     */
+    private TimeSample fetchTime() throws IOException
     {
-        Logger logger = Logger.getLogger(GohanCountDown.class.getName());
-        logger.info(String.valueOf(msg));
+        IOException last = null;
+        for (TimeSource source : sources) {
+            try {
+                return source.query();
+            } catch (IOException e) {
+                logger.log(Level.INFO, source.getName() + "での取得に失敗しました ", e.toString());
+                last = e;
+            }
+        }
+        throw last;
     }
-    
-    private long getNTPTime() throws IOException
-    {
-        Document document = Jsoup.connect(ntpAddress).get();
-        Elements elements = document.body().getAllElements();
-        StringBuilder sb = new StringBuilder();
-        for (Element element : elements) {
-            if (element.ownText() == null) {
-                continue;
+
+    private static ClockSampler findSampler(List<TimeSource> sources)
+    {
+        for (TimeSource source : sources) {
+            if (source instanceof ClockSampler) {
+                return (ClockSampler) source;
             }
-            sb.append(element.ownText()).append("\n");
         }
-        
-        String rawdata = sb.toString().replace(".","").replace("\n", "");
-        
-        return Long.valueOf(rawdata);
+        return null;
     }
 
 }
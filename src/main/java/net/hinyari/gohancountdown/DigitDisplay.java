@@ -0,0 +1,369 @@
+package net.hinyari.gohancountdown;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 数字を表示するためのJLabelの代わり
+ * 文字ごとの画像を作っておいて貼り付けるだけで描画し、変わった文字の範囲だけを再描画する
+ * 大きさは最初に決めた桁数から変えないので、文字が変わってもレイアウトをやり直さない
+ */
+public class DigitDisplay extends JComponent
+{
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * 1文字分の画像
+     */
+    private static final class Glyph
+    {
+        final BufferedImage image;
+        final int advance;
+
+        Glyph(BufferedImage image, int advance)
+        {
+            this.image = image;
+            this.advance = advance;
+        }
+    }
+
+    // ASCIIは配列で、それ以外はMapで持つ
+    private final Glyph[] ascii = new Glyph[128];
+    private final Map<Character, Glyph> others = new HashMap<>();
+    private double glyphScale = 1;
+
+    private char[] text = new char[0];
+    private int length;
+    private int[] xs = new int[0];
+    // 再描画する範囲を求めるための前回の内容
+    private char[] prevText = new char[0];
+    private int[] prevXs = new int[0];
+    private int columns;
+    private int horizontalAlignment = SwingConstants.LEADING;
+    private final Rectangle dirty = new Rectangle();
+
+    public DigitDisplay()
+    {
+        setOpaque(false);
+        updateUI();
+    }
+
+    @Override
+    public void updateUI()
+    {
+        // 色とフォントはラベルと同じものを使う
+        LookAndFeel.installColorsAndFont(this, "Label.background", "Label.foreground", "Label.font");
+        clearGlyphs();
+    }
+
+    /**
+     * 大きさを決める時の最低の桁数。0なら今の文字列の幅にする
+     */
+    public void setColumns(int columns)
+    {
+        this.columns = columns;
+        revalidate();
+    }
+
+    public int getColumns()
+    {
+        return columns;
+    }
+
+    /**
+     * @param alignment SwingConstants.LEFT、CENTER、RIGHT、LEADING、TRAILINGのいずれか
+     */
+    public void setHorizontalAlignment(int alignment)
+    {
+        this.horizontalAlignment = alignment;
+        layoutGlyphs();
+        repaint();
+    }
+
+    public int getHorizontalAlignment()
+    {
+        return horizontalAlignment;
+    }
+
+    public String getText()
+    {
+        return new String(text, 0, length);
+    }
+
+    public void setText(String text)
+    {
+        update(text);
+    }
+
+    /**
+     * 表示する文字列を差し替える。内容が同じなら何もしない
+     *
+     * @return 表示を書き換えた場合true
+     */
+    public boolean update(CharSequence s)
+    {
+        int n = s.length();
+        if (n == length) {
+            boolean same = true;
+            for (int i = 0; i < n && same; i++) {
+                same = text[i] == s.charAt(i);
+            }
+            if (same) {
+                return false;
+            }
+        }
+        int oldLength = length;
+        if (prevText.length < text.length) {
+            prevText = new char[text.length];
+            prevXs = new int[text.length];
+        }
+        System.arraycopy(text, 0, prevText, 0, oldLength);
+        System.arraycopy(xs, 0, prevXs, 0, oldLength);
+        if (text.length < n) {
+            text = Arrays.copyOf(text, Math.max(n, text.length * 2));
+        }
+        for (int i = 0; i < n; i++) {
+            text[i] = s.charAt(i);
+        }
+        length = n;
+        if (getTextWidth() > getAvailableWidth()) {
+            // 決めた大きさに収まらない時だけレイアウトをやり直す
+            revalidate();
+        }
+        layoutGlyphs();
+        repaintChanged(prevText, prevXs, oldLength);
+        return true;
+    }
+
+    /**
+     * 位置か文字が変わった範囲だけを再描画する
+     */
+    private void repaintChanged(char[] oldText, int[] oldXs, int oldLength)
+    {
+        int height = getHeight();
+        boolean empty = true;
+        int max = Math.max(length, oldLength);
+        for (int i = 0; i < max; i++) {
+            boolean inNew = i < length;
+            boolean inOld = i < oldLength;
+            if (inNew && inOld && text[i] == oldText[i] && xs[i] == oldXs[i]) {
+                continue;
+            }
+            if (inNew) {
+                empty = union(empty, xs[i], glyph(text[i]).advance, height);
+            }
+            if (inOld) {
+                empty = union(empty, oldXs[i], glyph(oldText[i]).advance, height);
+            }
+        }
+        if (!empty) {
+            repaint(dirty.x, dirty.y, dirty.width, dirty.height);
+        }
+    }
+
+    private boolean union(boolean empty, int x, int width, int height)
+    {
+        // 文字の画像は前後に少しはみ出すことがあるので1ピクセル広げる
+        if (empty) {
+            dirty.setBounds(x - 1, 0, width + 2, height);
+        } else {
+            dirty.add(x - 1, 0);
+            dirty.add(x + width + 1, height);
+        }
+        return false;
+    }
+
+    @Override
+    public void setFont(Font font)
+    {
+        super.setFont(font);
+        clearGlyphs();
+        revalidate();
+    }
+
+    @Override
+    public void setForeground(Color fg)
+    {
+        super.setForeground(fg);
+        clearGlyphs();
+    }
+
+    @Override
+    public void setBounds(int x, int y, int width, int height)
+    {
+        super.setBounds(x, y, width, height);
+        layoutGlyphs();
+    }
+
+    @Override
+    public Dimension getPreferredSize()
+    {
+        if (isPreferredSizeSet()) {
+            return super.getPreferredSize();
+        }
+        Insets insets = getInsets();
+        FontMetrics fm = getFontMetrics(getFont());
+        int width = Math.max(getTextWidth(), columns * fm.charWidth('0'));
+        return new Dimension(width + insets.left + insets.right, fm.getHeight() + insets.top + insets.bottom);
+    }
+
+    @Override
+    public Dimension getMinimumSize()
+    {
+        return isMinimumSizeSet() ? super.getMinimumSize() : getPreferredSize();
+    }
+
+    @Override
+    protected void paintComponent(Graphics g)
+    {
+        Graphics2D g2 = (Graphics2D) g;
+        if (isOpaque()) {
+            g2.setColor(getBackground());
+            g2.fillRect(0, 0, getWidth(), getHeight());
+        }
+        AffineTransform transform = g2.getTransform();
+        double scale = transform.getScaleX();
+        if (scale != glyphScale) {
+            // 画面の拡大率が変わったら作り直す
+            clearGlyphs();
+            glyphScale = scale;
+        }
+        Rectangle clip = g2.getClipBounds();
+        int y = getGlyphY();
+        int lineHeight = getFontMetrics(getFont()).getHeight();
+        for (int i = 0; i < length; i++) {
+            Glyph glyph = glyph(text[i]);
+            int x = xs[i];
+            if (clip != null && (x + glyph.advance + 1 < clip.x || x - 1 > clip.x + clip.width)) {
+                continue;
+            }
+            g2.drawImage(glyph.image, x, y, glyph.advance, lineHeight, null);
+        }
+    }
+
+    private int getTextWidth()
+    {
+        int width = 0;
+        for (int i = 0; i < length; i++) {
+            width += glyph(text[i]).advance;
+        }
+        return width;
+    }
+
+    private int getAvailableWidth()
+    {
+        Insets insets = getInsets();
+        int width = getWidth() - insets.left - insets.right;
+        return width > 0 ? width : getPreferredSize().width - insets.left - insets.right;
+    }
+
+    private int getGlyphY()
+    {
+        Insets insets = getInsets();
+        int inner = getHeight() - insets.top - insets.bottom;
+        return insets.top + (inner - getFontMetrics(getFont()).getHeight()) / 2;
+    }
+
+    /**
+     * 各文字の左端の位置を求める
+     */
+    private void layoutGlyphs()
+    {
+        if (xs.length < text.length) {
+            xs = new int[text.length];
+        }
+        Insets insets = getInsets();
+        int available = getWidth() - insets.left - insets.right;
+        int width = getTextWidth();
+        int x;
+        switch (resolveAlignment()) {
+            case SwingConstants.RIGHT:
+                x = insets.left + available - width;
+                break;
+            case SwingConstants.CENTER:
+                x = insets.left + (available - width) / 2;
+                break;
+            default:
+                x = insets.left;
+                break;
+        }
+        for (int i = 0; i < length; i++) {
+            xs[i] = x;
+            x += glyph(text[i]).advance;
+        }
+    }
+
+    private int resolveAlignment()
+    {
+        boolean ltr = getComponentOrientation().isLeftToRight();
+        switch (horizontalAlignment) {
+            case SwingConstants.LEADING:
+                return ltr ? SwingConstants.LEFT : SwingConstants.RIGHT;
+            case SwingConstants.TRAILING:
+                return ltr ? SwingConstants.RIGHT : SwingConstants.LEFT;
+            default:
+                return horizontalAlignment;
+        }
+    }
+
+    private Glyph glyph(char c)
+    {
+        Glyph glyph = c < ascii.length ? ascii[c] : others.get(c);
+        if (glyph == null) {
+            glyph = createGlyph(c);
+            if (c < ascii.length) {
+                ascii[c] = glyph;
+            } else {
+                others.put(c, glyph);
+            }
+        }
+        return glyph;
+    }
+
+    /**
+     * 1文字を今のフォントと色、拡大率で画像にする
+     */
+    private Glyph createGlyph(char c)
+    {
+        Font font = getFont();
+        FontMetrics fm = getFontMetrics(font);
+        int advance = Math.max(1, fm.charWidth(c));
+        int width = (int) Math.ceil(advance * glyphScale);
+        int height = (int) Math.ceil(fm.getHeight() * glyphScale);
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB_PRE);
+        Graphics2D g = image.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+            g.scale(glyphScale, glyphScale);
+            g.setFont(font);
+            g.setColor(getForeground());
+            g.drawString(String.valueOf(c), 0, fm.getAscent());
+        } finally {
+            g.dispose();
+        }
+        return new Glyph(image, advance);
+    }
+
+    private void clearGlyphs()
+    {
+        for (int i = 0; i < ascii.length; i++) {
+            ascii[i] = null;
+        }
+        others.clear();
+        if (getFont() != null) {
+            layoutGlyphs();
+        }
+        repaint();
+    }
+
+    @Override
+    protected String paramString()
+    {
+        return super.paramString() + ",text=" + getText() + ",columns=" + columns;
+    }
+}
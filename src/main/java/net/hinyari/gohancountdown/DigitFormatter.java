@@ -0,0 +1,171 @@
+package net.hinyari.gohancountdown;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+
+/**
+ * 使い回しのcharバッファに時計や数値を書き込むフォーマッタ
+ * 毎tickの表示文字列をオブジェクトを作らずに組み立てるために使う
+ */
+public class DigitFormatter implements CharSequence
+{
+    private final char[] buf;
+    private int length;
+
+    // オフセットのキャッシュ。[offsetFrom, offsetUntil) の間は同じオフセットを使う
+    private ZoneId offsetZone;
+    private long offsetMillis;
+    private long offsetFrom = Long.MAX_VALUE;
+    private long offsetUntil = Long.MIN_VALUE;
+
+    public DigitFormatter()
+    {
+        this(64);
+    }
+
+    public DigitFormatter(int capacity)
+    {
+        buf = new char[capacity];
+    }
+
+    public DigitFormatter clear()
+    {
+        length = 0;
+        return this;
+    }
+
+    public DigitFormatter append(char c)
+    {
+        buf[length++] = c;
+        return this;
+    }
+
+    public DigitFormatter append(String s)
+    {
+        s.getChars(0, s.length(), buf, length);
+        length += s.length();
+        return this;
+    }
+
+    public DigitFormatter append(long value)
+    {
+        return appendPadded(value, 1);
+    }
+
+    /**
+     * 0埋めで最低width桁になるように数値を書き込む
+     */
+    public DigitFormatter appendPadded(long value, int width)
+    {
+        if (value < 0) {
+            buf[length++] = '-';
+            if (value == Long.MIN_VALUE) {
+                // 符号反転できないので上位桁を先に書く
+                appendPadded(-(value / 10), width - 1);
+                buf[length++] = (char) ('0' - (value % 10));
+                return this;
+            }
+            value = -value;
+            width--;
+        }
+        int digits = 1;
+        for (long v = value; v >= 10; v /= 10) {
+            digits++;
+        }
+        int end = length + Math.max(digits, width);
+        for (int i = end - 1; i >= length; i--) {
+            buf[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        length = end;
+        return this;
+    }
+
+    /**
+     * yyyy/MM/dd HH:mm:ss の形式で時刻を書き込む
+     */
+    public DigitFormatter appendClock(long epochMillis, ZoneId zone)
+    {
+        long local = epochMillis + offsetAt(epochMillis, zone);
+        long epochDay = Math.floorDiv(local, 86_400_000L);
+        int secondOfDay = (int) (Math.floorMod(local, 86_400_000L) / 1000);
+
+        // エポック日から年月日を求める(proleptic Gregorian)
+        long z = epochDay + 719_468;
+        long era = Math.floorDiv(z, 146_097);
+        long doe = z - era * 146_097;
+        long yoe = (doe - doe / 1460 + doe / 36_524 - doe / 146_096) / 365;
+        long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        long mp = (5 * doy + 2) / 153;
+        long day = doy - (153 * mp + 2) / 5 + 1;
+        long month = mp < 10 ? mp + 3 : mp - 9;
+        long year = yoe + era * 400 + (month <= 2 ? 1 : 0);
+
+        appendPadded(year, 4).append('/');
+        appendPadded(month, 2).append('/');
+        appendPadded(day, 2).append(' ');
+        appendPadded(secondOfDay / 3600, 2).append(':');
+        appendPadded(secondOfDay / 60 % 60, 2).append(':');
+        return appendPadded(secondOfDay % 60, 2);
+    }
+
+    private long offsetAt(long epochMillis, ZoneId zone)
+    {
+        if (zone != offsetZone || epochMillis < offsetFrom || epochMillis >= offsetUntil) {
+            // 次の切り替わりまでは同じオフセットなので、その範囲だけ覚えておく
+            ZoneRules rules = zone.getRules();
+            Instant instant = Instant.ofEpochMilli(epochMillis);
+            ZoneOffset offset = rules.getOffset(instant);
+            ZoneOffsetTransition prev = rules.previousTransition(instant);
+            ZoneOffsetTransition next = rules.nextTransition(instant);
+            offsetZone = zone;
+            offsetMillis = offset.getTotalSeconds() * 1000L;
+            offsetFrom = prev == null ? Long.MIN_VALUE : prev.toEpochSecond() * 1000L;
+            offsetUntil = next == null ? Long.MAX_VALUE : next.toEpochSecond() * 1000L;
+        }
+        return offsetMillis;
+    }
+
+    /**
+     * 書き込んだ内容が文字列と同じかどうか
+     */
+    public boolean contentEquals(String s)
+    {
+        if (s == null || s.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (buf[i] != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int length()
+    {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index)
+    {
+        return buf[index];
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end)
+    {
+        return new String(buf, start, end - start);
+    }
+
+    @Override
+    public String toString()
+    {
+        return new String(buf, 0, length);
+    }
+}
@@ -0,0 +1,207 @@
+package net.hinyari.gohancountdown;
+
+import java.awt.GraphicsEnvironment;
+import java.awt.Toolkit;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Paths;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+
+/**
+ * 名前の付いた予定をTimingWheelに入れ、補正済みの時計で時刻が来たものを発火する
+ * 専用のスレッドが次に予定のあるtickまで眠り、起きるたびにその時刻までを進める
+ * 発火の遅れ(時計で見た予定の時刻からの差)をヒストグラムに記録する
+ * 発火を受け取る処理は専用のスレッドで呼ぶので、重い処理は別のスレッドに渡すこと
+ */
+public class EventScheduler
+{
+    private static final AsyncLogger logger = AsyncLogger.getLogger(EventScheduler.class);
+
+    public static final long DEFAULT_TICK = 10L;
+    // 時計が補正されても大きく遅れないよう、予定がなくてもこの間隔で起きる(ms)
+    private static final long MAX_SLEEP = 1000L;
+
+    private final LongSupplier clock;
+    private final Consumer<CountDownEvent> handler;
+    private final TimingWheel<CountDownEvent> wheel;
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final Consumer<TimingWheel.Timeout<CountDownEvent>> fire = this::fire;
+
+    private volatile boolean running;
+    private volatile Thread thread;
+    // advanceで使う、今回起きた時の時刻
+    private long now;
+
+    /**
+     * @param clock   補正済みの現在時刻(エポックミリ秒)
+     * @param handler 時刻が来た予定を受け取る
+     */
+    public EventScheduler(LongSupplier clock, Consumer<CountDownEvent> handler)
+    {
+        this(clock, handler, DEFAULT_TICK);
+    }
+
+    public EventScheduler(LongSupplier clock, Consumer<CountDownEvent> handler, long tickMillis)
+    {
+        this.clock = clock;
+        this.handler = handler;
+        this.wheel = new TimingWheel<>(tickMillis, clock.getAsLong());
+    }
+
+    /**
+     * -Dgohancountdown.events で指定したファイルから予定を読む
+     * webhookの動作の送り先は -Dgohancountdown.events.webhook で指定する
+     *
+     * @param clock     補正済みの現在時刻
+     * @param highlight 画面を点滅させる処理。画面がなければnull
+     * @return 指定がなければnull
+     */
+    public static EventScheduler fromSystemProperties(LongSupplier clock, Consumer<CountDownEvent> highlight)
+            throws IOException
+    {
+        String path = System.getProperty("gohancountdown.events");
+        if (path == null) {
+            return null;
+        }
+        List<CountDownEvent> events = CountDownEvent.load(Paths.get(path), ZoneId.systemDefault());
+        String webhookUrl = System.getProperty("gohancountdown.events.webhook");
+        WebhookAction webhook = webhookUrl == null ? null : new WebhookAction(new URL(webhookUrl),
+                Integer.getInteger("gohancountdown.http.timeout", WebhookAction.DEFAULT_TIMEOUT));
+        EventScheduler scheduler = new EventScheduler(clock, event -> dispatch(event, highlight, webhook));
+        long now = clock.getAsLong();
+        int skipped = 0;
+        for (CountDownEvent event : events) {
+            // 起動時点で過ぎている予定は発火しない
+            if (event.getTimeMillis() <= now) {
+                skipped++;
+            } else {
+                scheduler.schedule(event);
+            }
+        }
+        logger.info("予定を" + scheduler.size() + "件読み込みました(過ぎた予定" + skipped + "件) " + path);
+        return scheduler;
+    }
+
+    private static void dispatch(CountDownEvent event, Consumer<CountDownEvent> highlight, WebhookAction webhook)
+    {
+        logger.log(Level.INFO, "予定の時刻になりました ", event);
+        for (CountDownEvent.Action action : event.getActions()) {
+            switch (action) {
+                case HIGHLIGHT:
+                    if (highlight != null) {
+                        highlight.accept(event);
+                    }
+                    break;
+                case BEEP:
+                    // 画面のない環境では鳴らせないのでログだけにする
+                    if (!GraphicsEnvironment.isHeadless()) {
+                        Toolkit.getDefaultToolkit().beep();
+                    }
+                    break;
+                case WEBHOOK:
+                    if (webhook != null) {
+                        webhook.accept(event);
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    public synchronized void start()
+    {
+        if (running) {
+            return;
+        }
+        running = true;
+        thread = new Thread(this::run, "EventScheduler");
+        thread.setDaemon(true);
+        // 発火の遅れを小さくするため、tickより少し優先する
+        thread.setPriority(Thread.NORM_PRIORITY + 1);
+        thread.start();
+    }
+
+    public synchronized void stop()
+    {
+        running = false;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * 予定を登録する。O(1)
+     */
+    public TimingWheel.Timeout<CountDownEvent> schedule(CountDownEvent event)
+    {
+        TimingWheel.Timeout<CountDownEvent> timeout;
+        synchronized (this) {
+            timeout = wheel.schedule(event.getTimeMillis(), event);
+        }
+        // 今の眠りより早い予定かもしれないので起こして眠り直させる
+        wakeUp();
+        return timeout;
+    }
+
+    /**
+     * 予定を取り消す。O(1)
+     */
+    public synchronized boolean cancel(TimingWheel.Timeout<CountDownEvent> timeout)
+    {
+        return wheel.cancel(timeout);
+    }
+
+    public synchronized int size()
+    {
+        return wheel.size();
+    }
+
+    /**
+     * 予定の時刻から発火するまでの遅れ(ms)
+     */
+    public LatencyHistogram getLatency()
+    {
+        return latency;
+    }
+
+    private void wakeUp()
+    {
+        Thread t = thread;
+        if (t != null) {
+            LockSupport.unpark(t);
+        }
+    }
+
+    private void run()
+    {
+        while (running) {
+            long wakeup;
+            synchronized (this) {
+                now = clock.getAsLong();
+                wheel.advance(now, fire);
+                wakeup = wheel.nextWakeup();
+            }
+            long sleep = Math.min(MAX_SLEEP, wakeup - clock.getAsLong());
+            if (sleep > 0) {
+                LockSupport.parkNanos(this, sleep * 1_000_000L);
+            }
+        }
+    }
+
+    private void fire(TimingWheel.Timeout<CountDownEvent> timeout)
+    {
+        latency.record(now - timeout.getDeadline());
+        try {
+            handler.accept(timeout.getEvent());
+        } catch (RuntimeException e) {
+            // 例外で同じtickの他の予定が止まらないようにする
+            logger.log(Level.WARNING, "予定の発火に失敗しました", e);
+        }
+    }
+}
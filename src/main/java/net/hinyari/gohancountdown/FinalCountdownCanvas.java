@@ -0,0 +1,278 @@
+package net.hinyari.gohancountdown;
+
+import java.awt.*;
+import java.awt.image.BufferStrategy;
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+
+/**
+ * 目標の直前だけ使う、ミリ秒まで表示する画面
+ * EDTを通さずに専用のスレッドからBufferStrategyへ一定の間隔で描画する
+ * 目標を過ぎてしばらくしたら止まり、onFinishedをEDTで呼ぶ
+ */
+public class FinalCountdownCanvas extends Canvas
+{
+    private static final long serialVersionUID = 1L;
+
+    private static final AsyncLogger logger = AsyncLogger.getLogger(FinalCountdownCanvas.class);
+
+    public static final long DEFAULT_WINDOW = 60_000L;
+    public static final int DEFAULT_FPS = 60;
+    // 目標を過ぎてからHAPPY NEW YEARを表示しておく時間
+    private static final long HOLD_MILLIS = 5_000L;
+    // 統計に使うフレームの数
+    private static final int WINDOW_FRAMES = 120;
+    // 統計の表示を更新する間隔(フレーム)
+    private static final int STATS_INTERVAL = 30;
+    // stopで描画スレッドの終了を待つ上限(ms)
+    private static final long STOP_TIMEOUT = 1_000L;
+
+    private final LongSupplier clock;
+    private final long targetMillis;
+    private final Runnable onFinished;
+    private final long frameNanos;
+
+    private volatile boolean running;
+    private Thread thread;
+
+    // 以下は描画スレッドからしか触らない
+    private final char[] digits = new char[32];
+    private final long[] intervals = new long[WINDOW_FRAMES];
+    private final long[] sorted = new long[WINDOW_FRAMES];
+    private long frames;
+    private long missed;
+    private long lastFrameNanos;
+    private long maxInterval;
+    private String statsText = "";
+    private Font bigFont;
+    private Font smallFont;
+    private Font messageFont;
+    private int fontWidth = -1;
+
+    /**
+     * @param clock 表示に使う現在時刻
+     * @param targetMillis 目標時刻
+     * @param onFinished 目標を過ぎて描画を止めた後にEDTで呼ぶ
+     */
+    public FinalCountdownCanvas(LongSupplier clock, long targetMillis, Runnable onFinished)
+    {
+        this(clock, targetMillis, onFinished, Integer.getInteger("gohancountdown.final.fps", DEFAULT_FPS));
+    }
+
+    public FinalCountdownCanvas(LongSupplier clock, long targetMillis, Runnable onFinished, int fps)
+    {
+        this.clock = clock;
+        this.targetMillis = targetMillis;
+        this.onFinished = onFinished;
+        this.frameNanos = 1_000_000_000L / Math.max(1, fps);
+        setIgnoreRepaint(true);
+        setBackground(Color.BLACK);
+    }
+
+    /**
+     * 描画を始める。画面に追加して表示した後にEDTから呼ぶ
+     */
+    public void start()
+    {
+        if (running) {
+            return;
+        }
+        createBufferStrategy(2);
+        running = true;
+        thread = new Thread(this::renderLoop, "FinalCountdown");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.NORM_PRIORITY + 1);
+        thread.start();
+    }
+
+    /**
+     * 描画を止め、描画スレッドが終わるのを最大STOP_TIMEOUTまで待つ。onFinishedは呼ばない
+     * 画面から外す前に呼ぶこと。外した後に描画スレッドがBufferStrategyを触らないようにするため
+     */
+    public void stop()
+    {
+        running = false;
+        Thread t = thread;
+        if (t == null || t == Thread.currentThread()) {
+            return;
+        }
+        LockSupport.unpark(t);
+        try {
+            t.join(STOP_TIMEOUT);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (t.isAlive()) {
+            logger.log(Level.WARNING, "最終カウントダウンの描画スレッドが終了しません(ms) ", STOP_TIMEOUT);
+        }
+    }
+
+    public boolean isRunning()
+    {
+        return running;
+    }
+
+    private void renderLoop()
+    {
+        BufferStrategy strategy = getBufferStrategy();
+        boolean finished;
+        try {
+            finished = renderFrames(strategy);
+        } finally {
+            running = false;
+            // 裏のバッファを持ったままにしないよう、画面から外される前に捨てる
+            strategy.dispose();
+        }
+        logger.log(Level.INFO, "最終カウントダウンを終了しました ", statsText);
+        if (finished) {
+            EventQueue.invokeLater(onFinished);
+        }
+    }
+
+    /**
+     * 目標を過ぎてHOLD_MILLISたつか、止められるまで描画する
+     *
+     * @return 目標を過ぎて終わった場合true
+     */
+    private boolean renderFrames(BufferStrategy strategy)
+    {
+        long next = System.nanoTime();
+        while (running) {
+            long now = clock.getAsLong();
+            if (now - targetMillis >= HOLD_MILLIS) {
+                return true;
+            }
+            do {
+                do {
+                    Graphics2D g = (Graphics2D) strategy.getDrawGraphics();
+                    try {
+                        draw(g, now);
+                    } finally {
+                        g.dispose();
+                    }
+                } while (strategy.contentsRestored());
+                strategy.show();
+            } while (strategy.contentsLost());
+            Toolkit.getDefaultToolkit().sync();
+            recordFrame();
+
+            // 次のフレームの時刻まで待つ。間に合わなかった分は飛ばす
+            next += frameNanos;
+            long sleep = next - System.nanoTime();
+            if (sleep > 0) {
+                LockSupport.parkNanos(sleep);
+            } else {
+                missed += -sleep / frameNanos + 1;
+                next = System.nanoTime();
+            }
+        }
+        return false;
+    }
+
+    private void recordFrame()
+    {
+        long now = System.nanoTime();
+        if (lastFrameNanos != 0) {
+            long interval = now - lastFrameNanos;
+            intervals[(int) (frames % WINDOW_FRAMES)] = interval;
+            maxInterval = Math.max(maxInterval, interval);
+            frames++;
+            if (frames % STATS_INTERVAL == 0) {
+                updateStats();
+            }
+        }
+        lastFrameNanos = now;
+    }
+
+    /**
+     * 直近のフレーム間隔から統計の表示を作る
+     */
+    private void updateStats()
+    {
+        int n = (int) Math.min(frames, WINDOW_FRAMES);
+        System.arraycopy(intervals, 0, sorted, 0, n);
+        Arrays.sort(sorted, 0, n);
+        long total = 0;
+        for (int i = 0; i < n; i++) {
+            total += sorted[i];
+        }
+        double fps = total == 0 ? 0 : n * 1e9 / total;
+        long p99 = sorted[Math.min(n - 1, (int) Math.ceil(n * 0.99) - 1)];
+        statsText = String.format("%.1f fps  p99 %.1f ms  max %.1f ms  missed %d",
+                fps, p99 / 1e6, maxInterval / 1e6, missed);
+    }
+
+    private void draw(Graphics2D g, long now)
+    {
+        int width = getWidth();
+        int height = getHeight();
+        if (width != fontWidth) {
+            // 幅に合わせて文字の大きさを決める
+            bigFont = new Font(Font.MONOSPACED, Font.BOLD, Math.max(12, width / 5));
+            smallFont = new Font(Font.SANS_SERIF, Font.PLAIN, Math.max(10, width / 30));
+            messageFont = new Font(Font.SANS_SERIF, Font.BOLD, Math.max(12, width / 12));
+            fontWidth = width;
+        }
+        g.setColor(Color.BLACK);
+        g.fillRect(0, 0, width, height);
+        g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+        g.setColor(Color.WHITE);
+
+        long remaining = targetMillis - now;
+        int length;
+        Font font;
+        if (remaining > 0) {
+            length = formatRemaining(remaining);
+            font = bigFont;
+        } else {
+            length = copy("HAPPY NEW YEAR");
+            font = messageFont;
+        }
+        g.setFont(font);
+        FontMetrics fm = g.getFontMetrics();
+        int x = (width - fm.charsWidth(digits, 0, length)) / 2;
+        int y = (height - fm.getHeight()) / 2 + fm.getAscent();
+        g.drawChars(digits, 0, length, x, y);
+
+        g.setFont(smallFont);
+        g.setColor(Color.GRAY);
+        FontMetrics small = g.getFontMetrics();
+        g.drawString(statsText, (width - small.stringWidth(statsText)) / 2, height - small.getDescent() - 8);
+    }
+
+    /**
+     * 残り時間を「秒.ミリ秒」の形でdigitsに書き込む
+     */
+    private int formatRemaining(long remaining)
+    {
+        long seconds = remaining / 1000;
+        int millis = (int) (remaining % 1000);
+        int length = 0;
+        if (seconds == 0) {
+            digits[length++] = '0';
+        } else {
+            int start = length;
+            for (long v = seconds; v > 0; v /= 10) {
+                digits[length++] = (char) ('0' + v % 10);
+            }
+            for (int i = start, j = length - 1; i < j; i++, j--) {
+                char c = digits[i];
+                digits[i] = digits[j];
+                digits[j] = c;
+            }
+        }
+        digits[length++] = '.';
+        digits[length++] = (char) ('0' + millis / 100);
+        digits[length++] = (char) ('0' + millis / 10 % 10);
+        digits[length++] = (char) ('0' + millis % 10);
+        return length;
+    }
+
+    private int copy(String s)
+    {
+        s.getChars(0, s.length(), digits, 0);
+        return s.length();
+    }
+}
@@ -12,28 +12,35 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.ComponentAdapter;
 import java.awt.event.ComponentEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.function.Consumer;
 
 public class GohanCountDown
 {
     private JFrame jFrame;
 
     private JPanel panel1;
-    private JLabel label_unt2019ss;
-    private JLabel label_unt2019h;
-    private JLabel label_unt2019m;
-    private JLabel label_unt2019s;
-    private JLabel label_from2018ss;
-    private JLabel label_unt2020ss;
+    private DigitDisplay label_unt2019ss;
+    private DigitDisplay label_unt2019h;
+    private DigitDisplay label_unt2019m;
+    private DigitDisplay label_unt2019s;
+    private DigitDisplay label_from2018ss;
+    private DigitDisplay label_unt2020ss;
     private JLabel label_server;
     private JLabel label_appstatus;
-    private JLabel label_nowtime;
+    private DigitDisplay label_nowtime;
     private JLabel label_yearsfrom;
     private JLabel label_errortime;
-    private JLabel label_untdays;
+    private DigitDisplay label_untdays;
     private JCheckBox check_isresizeable;
     private JCheckBox check_frontdisplayed;
+    // タイムゾーンごとの元日を使う場合だけ作る
+    private JLabel label_world;
 
-    private static final GohanCountDown instance = new GohanCountDown();
+    private static volatile GohanCountDown instance;
 
     public static GohanCountDown getInstance()
     {
@@ -41,20 +48,109 @@ public class GohanCountDown
     }
 
     private static CountDownTimer countDownTimer;
+    // 目標直前の表示。使っていない間はnull。EDTからしか触らない
+    private FinalCountdownCanvas finalCountdown;
+    // 最後にタイマーへ伝えた表示状態
+    private boolean displayVisible = true;
+    // 予定の時刻に画面を点滅させる。EDTからしか触らない
+    // Colorを静的に持つと画面を出さない起動でもAWTを初期化してしまうので、インスタンスに持つ
+    private final Color highlightColor = new Color(255, 220, 120);
+    private static final int HIGHLIGHT_FLASHES = 6;
+    private Timer highlightTimer;
+    private Color highlightNormal;
+    private int highlightCount;
 
     public static void main(String[] args)
     {
+        StartupTimer.markStart();
+        if (Arrays.asList(args).contains("--headless") || GraphicsEnvironment.isHeadless()) {
+            startHeadless();
+        } else {
+            // 画面はEDTで作る
+            SwingUtilities.invokeLater(() -> instance = new GohanCountDown());
+        }
+        // 計測値の公開は指定された時だけ
+        MetricsEndpoint.startFromSystemProperties();
     }
 
-    private GohanCountDown()
+    /**
+     * 画面を出さずにカウントダウンをHTTPで配信する
+     */
+    private static void startHeadless()
     {
+        BroadcastServer server = BroadcastServer.fromSystemProperties();
         try {
-            UIManager.setLookAndFeel("com.sun.java.swing.plaf.windows.WindowsLookAndFeel");
-        } catch (ClassNotFoundException | InstantiationException | UnsupportedLookAndFeelException | IllegalAccessException e) {
-            System.out.println("Windowsテーマの実装に失敗しました。");
+            server.start();
+        } catch (IOException e) {
+            System.out.println("配信を開始できませんでした: " + e.getMessage());
+            System.exit(1);
         }
-        countDownTimer = new CountDownTimer(this);
-        jFrame = new JFrame();
+        countDownTimer = new CountDownTimer(server);
+        startEvents(null);
+    }
+
+    /**
+     * 指定があれば予定を読み込んで発火を始める
+     *
+     * @param highlight 画面を点滅させる処理。画面がなければnull
+     */
+    private static void startEvents(Consumer<CountDownEvent> highlight)
+    {
+        if (System.getProperty("gohancountdown.events") == null) {
+            return;
+        }
+        CountDownTimer timer = countDownTimer;
+        // 予定のファイルは大きいことがあるので、最初の表示を遅らせないよう別のスレッドで読む
+        Thread loader = new Thread(() ->
+        {
+            try {
+                EventScheduler events = EventScheduler.fromSystemProperties(timer::currentTimeMillis, highlight);
+                if (events != null) {
+                    CountDownMetrics.getInstance().bindEvents(events);
+                    events.start();
+                }
+            } catch (IOException | IllegalArgumentException e) {
+                System.out.println("予定を読み込めませんでした: " + e.getMessage());
+            }
+        }, "EventLoader");
+        loader.setDaemon(true);
+        loader.start();
+    }
+
+    private GohanCountDown()
+    {
+        // Windows以外ではテーマのクラスがないので、探して失敗する分の時間をかけない
+        if (System.getProperty("os.name", "").startsWith("Windows")) {
+            try {
+                UIManager.setLookAndFeel("com.sun.java.swing.plaf.windows.WindowsLookAndFeel");
+            } catch (ClassNotFoundException | InstantiationException | UnsupportedLookAndFeelException | IllegalAccessException e) {
+                System.out.println("Windowsテーマの実装に失敗しました。");
+            }
+        }
+        if (WorldNewYearQueue.isEnabled()) {
+            // 下の余白の行に足す
+            label_world = new JLabel(" ");
+            panel1.add(label_world, new CellConstraints().xyw(3, 32, 15, CellConstraints.LEFT, CellConstraints.TOP));
+        }
+        jFrame = new JFrame()
+        {
+            @Override
+            protected JRootPane createRootPane()
+            {
+                JRootPane rootPane = new JRootPane()
+                {
+                    @Override
+                    public void paint(Graphics g)
+                    {
+                        super.paint(g);
+                        // 起動時間として、画面を最初に描き終えた時点を記録する。2回目以降はすぐに戻る
+                        StartupTimer.markFirstFrame();
+                    }
+                };
+                rootPane.setOpaque(true);
+                return rootPane;
+            }
+        };
         jFrame.setDefaultCloseOperation(WindowConstants.EXIT_ON_CLOSE);
         jFrame.setContentPane(panel1);
         jFrame.setSize(380, 560);
@@ -68,6 +164,33 @@ public class GohanCountDown
             {
                 jFrame.setTitle("GohanCountDown(" + e.getComponent().getWidth() + "×" + e.getComponent().getHeight() + ")");
             }
+
+            @Override
+            public void componentShown(ComponentEvent e)
+            {
+                updateDisplayVisible();
+            }
+
+            @Override
+            public void componentHidden(ComponentEvent e)
+            {
+                updateDisplayVisible();
+            }
+        });
+        // 最小化している間は描画を止める。常に最前面に出す使い方が多いのでフォーカスの有無では止めない
+        jFrame.addWindowListener(new WindowAdapter()
+        {
+            @Override
+            public void windowIconified(WindowEvent e)
+            {
+                updateDisplayVisible();
+            }
+
+            @Override
+            public void windowDeiconified(WindowEvent e)
+            {
+                updateDisplayVisible();
+            }
         });
         check_isresizeable.addActionListener(e ->
         {
@@ -78,39 +201,119 @@ public class GohanCountDown
             jFrame.setAlwaysOnTop(check_frontdisplayed.isSelected());
         });
         jFrame.setVisible(true);
+        // 画面を出してから時計を動かし始める。時刻の取得は裏で行う
+        countDownTimer = new CountDownTimer(this);
+        startEvents(event -> SwingUtilities.invokeLater(() -> highlight(event)));
     }
 
 
-    public JLabel getLabel_unt2019ss()
+    public DigitDisplay getLabel_unt2019ss()
     {
         return label_unt2019ss;
     }
 
-    public JLabel getLabel_unt2019h()
+    public DigitDisplay getLabel_unt2019h()
     {
         return label_unt2019h;
     }
 
-    public JLabel getLabel_unt2019m()
+    public DigitDisplay getLabel_unt2019m()
     {
         return label_unt2019m;
     }
 
-    public JLabel getLabel_unt2019s()
+    public DigitDisplay getLabel_unt2019s()
     {
         return label_unt2019s;
     }
 
-    public JLabel getLabel_from2018ss()
+    public DigitDisplay getLabel_from2018ss()
     {
         return label_from2018ss;
     }
 
-    public JLabel getLabel_unt2020ss()
+    public DigitDisplay getLabel_unt2020ss()
     {
         return label_unt2020ss;
     }
 
+    /**
+     * 画面が見えているかどうかをタイマーに伝える
+     */
+    private void updateDisplayVisible()
+    {
+        boolean visible = jFrame.isShowing() && (jFrame.getExtendedState() & Frame.ICONIFIED) == 0;
+        if (visible == displayVisible || countDownTimer == null) {
+            return;
+        }
+        displayVisible = visible;
+        if (!visible) {
+            // 最終カウントダウンの描画も止める。戻った時に残り時間があればまた始まる
+            stopFinalCountdown();
+        }
+        countDownTimer.setDisplayVisible(visible);
+    }
+
+    /**
+     * 目標直前の高頻度の表示に切り替える。既に切り替えていれば何もしない
+     */
+    void startFinalCountdown(long targetMillis)
+    {
+        if (finalCountdown != null || countDownTimer == null) {
+            return;
+        }
+        finalCountdown = new FinalCountdownCanvas(countDownTimer::currentTimeMillis, targetMillis,
+                this::stopFinalCountdown);
+        JPanel pane = new JPanel(new BorderLayout());
+        pane.add(finalCountdown, BorderLayout.CENTER);
+        jFrame.setContentPane(pane);
+        jFrame.validate();
+        finalCountdown.start();
+    }
+
+    /**
+     * 通常の表示に戻す
+     */
+    void stopFinalCountdown()
+    {
+        if (finalCountdown == null) {
+            return;
+        }
+        // 描画スレッドが終わってから画面を外す
+        finalCountdown.stop();
+        finalCountdown = null;
+        jFrame.setContentPane(panel1);
+        jFrame.validate();
+        jFrame.repaint();
+    }
+
+    /**
+     * 予定の時刻が来たことを、タイトルに名前を出して背景を何回か点滅させて知らせる
+     */
+    void highlight(CountDownEvent event)
+    {
+        jFrame.setTitle("GohanCountDown - " + event.getName());
+        if (highlightTimer == null) {
+            highlightNormal = panel1.getBackground();
+            highlightTimer = new Timer(250, e ->
+            {
+                highlightCount++;
+                boolean done = highlightCount >= HIGHLIGHT_FLASHES * 2;
+                panel1.setBackground(highlightCount % 2 == 1 && !done ? highlightColor : highlightNormal);
+                if (done) {
+                    highlightTimer.stop();
+                }
+            });
+        }
+        highlightCount = 0;
+        highlightTimer.restart();
+    }
+
+    boolean isFinalCountdownActive()
+    {
+        return finalCountdown != null;
+    }
+
     public JLabel getLabel_server()
     {
         return label_server;
@@ -121,7 +324,7 @@ public class GohanCountDown
         return label_appstatus;
     }
 
-    public JLabel getLabel_nowtime()
+    public DigitDisplay getLabel_nowtime()
     {
         return label_nowtime;
     }
@@ -136,7 +339,15 @@ public class GohanCountDown
         return label_errortime;
     }
 
-    public JLabel getLabel_untdays()
+    /**
+     * タイムゾーンごとの元日を使わない場合はnull
+     */
+    public JLabel getLabel_world()
+    {
+        return label_world;
+    }
+
+    public DigitDisplay getLabel_untdays()
     {
         return label_untdays;
     }
@@ -164,11 +375,12 @@ public class GohanCountDown
         panel1.add(spacer1, cc.xy(1, 2, CellConstraints.FILL, CellConstraints.DEFAULT));
         final Spacer spacer2 = new Spacer();
         panel1.add(spacer2, cc.xy(18, 2, CellConstraints.FILL, CellConstraints.DEFAULT));
-        label_unt2019s = new JLabel();
+        label_unt2019s = new DigitDisplay();
         label_unt2019s.setEnabled(true);
         Font label_unt2019sFont = this.$$$getFont$$$(null, -1, 28, label_unt2019s.getFont());
         if (label_unt2019sFont != null)
             label_unt2019s.setFont(label_unt2019sFont);
+        label_unt2019s.setColumns(2);
         label_unt2019s.setHorizontalAlignment(4);
         label_unt2019s.setText("00");
         panel1.add(label_unt2019s, cc.xy(15, 19));
@@ -184,17 +396,19 @@ public class GohanCountDown
             label2.setFont(label2Font);
         label2.setText("秒");
         panel1.add(label2, cc.xy(17, 17));
-        label_unt2019h = new JLabel();
+        label_unt2019h = new DigitDisplay();
         Font label_unt2019hFont = this.$$$getFont$$$(null, -1, 28, label_unt2019h.getFont());
         if (label_unt2019hFont != null)
             label_unt2019h.setFont(label_unt2019hFont);
+        label_unt2019h.setColumns(2);
         label_unt2019h.setHorizontalAlignment(4);
         label_unt2019h.setText("00");
         panel1.add(label_unt2019h, cc.xy(7, 19));
-        label_unt2019m = new JLabel();
+        label_unt2019m = new DigitDisplay();
         Font label_unt2019mFont = this.$$$getFont$$$(null, -1, 28, label_unt2019m.getFont());
         if (label_unt2019mFont != null)
             label_unt2019m.setFont(label_unt2019mFont);
+        label_unt2019m.setColumns(2);
         label_unt2019m.setHorizontalAlignment(4);
         label_unt2019m.setText("00");
         panel1.add(label_unt2019m, cc.xy(11, 19));
@@ -204,10 +418,11 @@ public class GohanCountDown
             label3.setFont(label3Font);
         label3.setText("分");
         panel1.add(label3, cc.xy(13, 19));
-        label_unt2019ss = new JLabel();
+        label_unt2019ss = new DigitDisplay();
         Font label_unt2019ssFont = this.$$$getFont$$$(null, -1, 28, label_unt2019ss.getFont());
         if (label_unt2019ssFont != null)
             label_unt2019ss.setFont(label_unt2019ssFont);
+        label_unt2019ss.setColumns(10);
         label_unt2019ss.setHorizontalAlignment(4);
         label_unt2019ss.setText("0");
         panel1.add(label_unt2019ss, cc.xyw(3, 17, 13));
@@ -226,10 +441,11 @@ public class GohanCountDown
         panel1.add(label5, cc.xyw(3, 2, 15));
         final JSeparator separator1 = new JSeparator();
         panel1.add(separator1, cc.xyw(3, 21, 15, CellConstraints.FILL, CellConstraints.FILL));
-        label_unt2020ss = new JLabel();
+        label_unt2020ss = new DigitDisplay();
         Font label_unt2020ssFont = this.$$$getFont$$$(null, -1, 28, label_unt2020ss.getFont());
         if (label_unt2020ssFont != null)
             label_unt2020ss.setFont(label_unt2020ssFont);
+        label_unt2020ss.setColumns(10);
         label_unt2020ss.setHorizontalAlignment(4);
         label_unt2020ss.setText("0");
         panel1.add(label_unt2020ss, cc.xyw(3, 28, 13));
@@ -278,12 +494,11 @@ public class GohanCountDown
         label11.setHorizontalTextPosition(10);
         label11.setText("誤差");
         panel1.add(label11, cc.xyw(3, 8, 5));
-        label_nowtime = new JLabel();
+        label_nowtime = new DigitDisplay();
         Font label_nowtimeFont = this.$$$getFont$$$(null, -1, 28, label_nowtime.getFont());
         if (label_nowtimeFont != null)
             label_nowtime.setFont(label_nowtimeFont);
         label_nowtime.setHorizontalAlignment(4);
-        label_nowtime.setHorizontalTextPosition(10);
         label_nowtime.setText("0000/00/00 00:00:00");
         panel1.add(label_nowtime, cc.xyw(3, 13, 15));
         label_yearsfrom = new JLabel();
@@ -298,11 +513,12 @@ public class GohanCountDown
             label12.setFont(label12Font);
         label12.setText("秒");
         panel1.add(label12, cc.xy(17, 24));
-        label_from2018ss = new JLabel();
+        label_from2018ss = new DigitDisplay();
         label_from2018ss.setEnabled(true);
         Font label_from2018ssFont = this.$$$getFont$$$(null, -1, 28, label_from2018ss.getFont());
         if (label_from2018ssFont != null)
             label_from2018ss.setFont(label_from2018ssFont);
+        label_from2018ss.setColumns(10);
         label_from2018ss.setHorizontalAlignment(4);
         label_from2018ss.setText("0");
         panel1.add(label_from2018ss, cc.xyw(3, 24, 13));
@@ -316,10 +532,11 @@ public class GohanCountDown
         label14.setHorizontalAlignment(4);
         label14.setText("接続中のサーバ");
         panel1.add(label14, cc.xyw(3, 4, 5));
-        label_untdays = new JLabel();
+        label_untdays = new DigitDisplay();
         Font label_untdaysFont = this.$$$getFont$$$(null, -1, 28, label_untdays.getFont());
         if (label_untdaysFont != null)
             label_untdays.setFont(label_untdaysFont);
+        label_untdays.setColumns(3);
         label_untdays.setHorizontalAlignment(4);
         label_untdays.setText("000");
         panel1.add(label_untdays, cc.xy(3, 19));
@@ -0,0 +1,116 @@
+package net.hinyari.gohancountdown;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+/**
+ * HTTPの応答のDateヘッダから時刻を取得する
+ * HEADで問い合わせるので本文は受け取らない。どのWebサーバでも使えるが、Dateは秒単位なので誤差は0.5秒程度ある
+ * -Dgohancountdown.httpdate.url で取得先を、-Dgohancountdown.http.timeout でタイムアウト(ms)を変えられる
+ */
+public class HttpDateTimeSource extends HttpTimeSource
+{
+    public static final String DEFAULT_URL = "http://ntp-a1.nict.go.jp/";
+    // "Sun, 06 Nov 1994 08:49:37 GMT"
+    private static final int FIXDATE_LENGTH = 29;
+    private static final String MONTHS = "JanFebMarAprMayJunJulAugSepOctNovDec";
+
+    public HttpDateTimeSource()
+    {
+        this(System.getProperty("gohancountdown.httpdate.url", DEFAULT_URL),
+                Integer.getInteger("gohancountdown.http.timeout", DEFAULT_TIMEOUT));
+    }
+
+    public HttpDateTimeSource(String url, int timeout)
+    {
+        super("HEAD", url, timeout);
+    }
+
+    @Override
+    public String getName()
+    {
+        return "httpdate";
+    }
+
+    @Override
+    long parseResponse() throws IOException
+    {
+        // 状態にかかわらずDateは付く
+        int value = findHeader("Date");
+        if (value < 0) {
+            throw new IOException(getUrl() + " の応答にDateヘッダがありません");
+        }
+        // 秒未満は切り捨てられているので、その秒の真ん中とみなす
+        return parseHttpDate(buffer, value, lineEnd(value)) + 500L;
+    }
+
+    /**
+     * Dateヘッダの値をエポックミリ秒にする
+     * 普通はIMF-fixdateなので決まった位置から数字を読み、それ以外の形はDateTimeFormatterに任せる
+     *
+     * @throws IOException 読み取れない場合
+     */
+    static long parseHttpDate(byte[] b, int from, int to) throws IOException
+    {
+        while (to > from && b[to - 1] == ' ') {
+            to--;
+        }
+        if (to - from == FIXDATE_LENGTH && b[from + 3] == ',' && b[from + 26] == 'G' && b[from + 27] == 'M'
+                && b[from + 28] == 'T') {
+            int month = month(b, from + 8);
+            int day = digits(b, from + 5, 2);
+            int year = digits(b, from + 12, 4);
+            int hour = digits(b, from + 17, 2);
+            int minute = digits(b, from + 20, 2);
+            int second = digits(b, from + 23, 2);
+            if (month > 0 && day >= 0 && year >= 0 && hour >= 0 && hour < 24 && minute >= 0 && minute < 60
+                    && second >= 0 && second < 61) {
+                try {
+                    long days = LocalDate.of(year, month, day).toEpochDay();
+                    return ((days * 24 + hour) * 60 + minute) * 60_000L + second * 1000L;
+                } catch (RuntimeException e) {
+                    throw new IOException("Dateヘッダを読み取れません", e);
+                }
+            }
+        }
+        String text = new String(b, from, to - from, StandardCharsets.US_ASCII);
+        try {
+            return ZonedDateTime.parse(text, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            throw new IOException("Dateヘッダを読み取れません: " + text, e);
+        }
+    }
+
+    /**
+     * 月の略称を1から12にする。該当しなければ-1
+     */
+    private static int month(byte[] b, int from)
+    {
+        for (int m = 0; m < 12; m++) {
+            if (b[from] == MONTHS.charAt(m * 3) && b[from + 1] == MONTHS.charAt(m * 3 + 1)
+                    && b[from + 2] == MONTHS.charAt(m * 3 + 2)) {
+                return m + 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 10進数をlength桁読む。数字でなければ-1
+     */
+    private static int digits(byte[] b, int from, int length)
+    {
+        int value = 0;
+        for (int i = from; i < from + length; i++) {
+            if (b[i] < '0' || b[i] > '9') {
+                return -1;
+            }
+            value = value * 10 + (b[i] - '0');
+        }
+        return value;
+    }
+}
@@ -0,0 +1,382 @@
+package net.hinyari.gohancountdown;
+
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.logging.Level;
+
+/**
+ * HTTPで時刻を取得する時刻源の共通部分
+ * 接続はkeep-aliveで使い回し、応答は決まった大きさのバッファに読んでその場で解析する
+ * 接続は計測の前に済ませておくので、往復の通信遅延にTCPやTLSの接続にかかる時間は含まれない
+ * サーバの時刻は応答を返した時点のものとみなし、通信遅延の半分を補正する
+ */
+abstract class HttpTimeSource implements TimeSource
+{
+    private static final AsyncLogger logger = AsyncLogger.getLogger(HttpTimeSource.class);
+
+    public static final int DEFAULT_TIMEOUT = 2000;
+    // ヘッダと本文を合わせた応答の最大の大きさ
+    private static final int BUFFER_SIZE = 8192;
+    private static final char[] CRLF = {'\r', '\n'};
+    private static final char[] HEADER_END = {'\r', '\n', '\r', '\n'};
+
+    private final String url;
+    private final String host;
+    private final int port;
+    private final boolean secure;
+    private final int timeout;
+    private final byte[] request;
+    private final boolean headOnly;
+
+    // 以下はqueryの中でしか触らない
+    final byte[] buffer = new byte[BUFFER_SIZE];
+    int limit;
+    int status;
+    int headerEnd;
+    int bodyStart;
+    int bodyEnd;
+    private boolean keepAlive;
+    private Socket socket;
+    private InputStream in;
+    private OutputStream out;
+
+    /**
+     * @param method  GETかHEAD
+     * @param url     http:またはhttps:のURL
+     * @param timeout 接続と読み込みのタイムアウト(ms)
+     */
+    HttpTimeSource(String method, String url, int timeout)
+    {
+        URI uri = URI.create(url);
+        String scheme = uri.getScheme() == null ? "" : uri.getScheme().toLowerCase();
+        if (!scheme.equals("http") && !scheme.equals("https")) {
+            throw new IllegalArgumentException("http:かhttps:のURLを指定してください: " + url);
+        }
+        if (uri.getHost() == null) {
+            throw new IllegalArgumentException("ホスト名がありません: " + url);
+        }
+        this.url = url;
+        this.host = uri.getHost();
+        this.secure = scheme.equals("https");
+        this.port = uri.getPort() < 0 ? (secure ? 443 : 80) : uri.getPort();
+        this.timeout = timeout;
+        this.headOnly = method.equals("HEAD");
+        String path = uri.getRawPath() == null || uri.getRawPath().isEmpty() ? "/" : uri.getRawPath();
+        if (uri.getRawQuery() != null) {
+            path += "?" + uri.getRawQuery();
+        }
+        String hostHeader = uri.getPort() < 0 ? host : host + ":" + port;
+        this.request = (method + " " + path + " HTTP/1.1\r\n"
+                + "Host: " + hostHeader + "\r\n"
+                + "User-Agent: GohanCountDown\r\n"
+                + "Cache-Control: no-cache\r\n"
+                + "Connection: keep-alive\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+    }
+
+    public String getUrl()
+    {
+        return url;
+    }
+
+    @Override
+    public synchronized TimeSample query() throws IOException
+    {
+        boolean reused = socket != null;
+        try {
+            return exchange();
+        } catch (IOException e) {
+            close();
+            if (!reused) {
+                throw e;
+            }
+            // 使い回した接続がサーバ側で切られていた場合は1回だけつなぎ直す
+            logger.log(Level.FINE, "接続し直します ", e.toString());
+            try {
+                return exchange();
+            } catch (IOException retry) {
+                close();
+                throw retry;
+            }
+        }
+    }
+
+    /**
+     * 読み込んだ応答からサーバの時刻(エポックミリ秒)を求める
+     * buffer、status、headerEnd、bodyStart、bodyEndを使う
+     */
+    abstract long parseResponse() throws IOException;
+
+    /**
+     * 接続を閉じる。次のqueryでつなぎ直す
+     */
+    public synchronized void close()
+    {
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                logger.log(Level.FINE, "切断に失敗しました ", e.toString());
+            }
+        }
+        socket = null;
+        in = null;
+        out = null;
+    }
+
+    private TimeSample exchange() throws IOException
+    {
+        if (socket == null) {
+            connect();
+        }
+        long startNanos = System.nanoTime();
+        long start = System.currentTimeMillis();
+        out.write(request);
+        out.flush();
+        readResponse();
+        long endNanos = System.nanoTime();
+        long delay = (endNanos - startNanos) / 1_000_000L;
+        long end = start + delay;
+        long serverTime = parseResponse();
+        if (!keepAlive) {
+            close();
+        }
+        return new TimeSample(url, serverTime + delay / 2 - end, delay, end, endNanos);
+    }
+
+    private void connect() throws IOException
+    {
+        Socket raw = new Socket();
+        try {
+            raw.setTcpNoDelay(true);
+            raw.connect(new InetSocketAddress(host, port), timeout);
+            raw.setSoTimeout(timeout);
+            Socket s = raw;
+            if (secure) {
+                SSLSocket ssl = (SSLSocket) ((SSLSocketFactory) SSLSocketFactory.getDefault())
+                        .createSocket(raw, host, port, true);
+                SSLParameters parameters = ssl.getSSLParameters();
+                parameters.setEndpointIdentificationAlgorithm("HTTPS");
+                ssl.setSSLParameters(parameters);
+                ssl.startHandshake();
+                s = ssl;
+            }
+            in = s.getInputStream();
+            out = s.getOutputStream();
+            socket = s;
+        } catch (IOException | RuntimeException e) {
+            raw.close();
+            throw e;
+        }
+    }
+
+    /**
+     * 応答を1つ読み込む。本文がchunkedの場合はbuffer上でつなげておく
+     */
+    private void readResponse() throws IOException
+    {
+        limit = 0;
+        int end;
+        int from = 0;
+        while ((end = indexOf(from, limit, HEADER_END)) < 0) {
+            from = Math.max(0, limit - 3);
+            fill();
+        }
+        headerEnd = end + 4;
+        // "HTTP/1.1 200 OK"
+        if (headerEnd < 12 || !startsWith(0, "HTTP/1.")) {
+            throw new IOException("HTTPの応答ではありません");
+        }
+        status = parseInt(9, 12, 10);
+        keepAlive = buffer[7] == '1' && !headerEquals("Connection", "close");
+        bodyStart = headerEnd;
+        if (headOnly || status / 100 == 1 || status == 204 || status == 304) {
+            bodyEnd = headerEnd;
+        } else if (headerEquals("Transfer-Encoding", "chunked")) {
+            readChunked();
+        } else {
+            int value = findHeader("Content-Length");
+            if (value >= 0) {
+                bodyEnd = headerEnd + parseInt(value, lineEnd(value), 10);
+                if (bodyEnd > buffer.length) {
+                    throw new IOException("応答が大きすぎます");
+                }
+                while (limit < bodyEnd) {
+                    fill();
+                }
+            } else {
+                // 長さがなければ接続が閉じられるまで読む
+                keepAlive = false;
+                while (fillOrEof()) {
+                    // 読むだけ
+                }
+                bodyEnd = limit;
+            }
+        }
+    }
+
+    private void readChunked() throws IOException
+    {
+        int read = headerEnd;
+        int write = headerEnd;
+        while (true) {
+            int end = ensureLine(read);
+            int sizeEnd = read;
+            while (sizeEnd < end && buffer[sizeEnd] != ';') {
+                sizeEnd++;
+            }
+            int size = parseInt(read, sizeEnd, 16);
+            read = end + 2;
+            if (size == 0) {
+                break;
+            }
+            while (limit < read + size + 2) {
+                fill();
+            }
+            System.arraycopy(buffer, read, buffer, write, size);
+            write += size;
+            read += size + 2;
+        }
+        // トレーラーを読み飛ばす
+        int end;
+        while ((end = ensureLine(read)) != read) {
+            read = end + 2;
+        }
+        bodyEnd = write;
+    }
+
+    /**
+     * fromから始まる行のCRの位置。行の終わりまで読めていなければ読み足す
+     */
+    private int ensureLine(int from) throws IOException
+    {
+        int end;
+        while ((end = indexOf(from, limit, CRLF)) < 0) {
+            fill();
+        }
+        return end;
+    }
+
+    private void fill() throws IOException
+    {
+        if (!fillOrEof()) {
+            throw new EOFException("応答の途中で接続が閉じられました");
+        }
+    }
+
+    private boolean fillOrEof() throws IOException
+    {
+        if (limit == buffer.length) {
+            throw new IOException("応答が大きすぎます");
+        }
+        int n = in.read(buffer, limit, buffer.length - limit);
+        if (n < 0) {
+            return false;
+        }
+        limit += n;
+        return true;
+    }
+
+    /**
+     * ヘッダの値の先頭の位置。なければ-1
+     */
+    int findHeader(String name)
+    {
+        int line = lineEnd(0) + 2;
+        while (line < headerEnd - 2) {
+            int end = lineEnd(line);
+            if (end - line > name.length() && buffer[line + name.length()] == ':' && regionMatches(line, name)) {
+                int value = line + name.length() + 1;
+                while (value < end && (buffer[value] == ' ' || buffer[value] == '\t')) {
+                    value++;
+                }
+                return value;
+            }
+            line = end + 2;
+        }
+        return -1;
+    }
+
+    /**
+     * fromを含む行のCRの位置
+     */
+    int lineEnd(int from)
+    {
+        int end = indexOf(from, headerEnd, CRLF);
+        return end < 0 ? headerEnd : end;
+    }
+
+    private boolean headerEquals(String name, String value)
+    {
+        int start = findHeader(name);
+        if (start < 0) {
+            return false;
+        }
+        int end = lineEnd(start);
+        while (end > start && buffer[end - 1] == ' ') {
+            end--;
+        }
+        return end - start == value.length() && regionMatches(start, value);
+    }
+
+    private boolean regionMatches(int from, String s)
+    {
+        for (int i = 0; i < s.length(); i++) {
+            if (Character.toLowerCase((char) buffer[from + i]) != Character.toLowerCase(s.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean startsWith(int from, String s)
+    {
+        for (int i = 0; i < s.length(); i++) {
+            if (buffer[from + i] != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int indexOf(int from, int to, char[] pattern)
+    {
+        outer:
+        for (int i = from; i <= to - pattern.length; i++) {
+            for (int j = 0; j < pattern.length; j++) {
+                if (buffer[i + j] != pattern[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    private int parseInt(int from, int to, int radix) throws IOException
+    {
+        while (to > from && buffer[to - 1] == ' ') {
+            to--;
+        }
+        if (from >= to || to - from > 7) {
+            throw new IOException("数値を読み取れません");
+        }
+        int value = 0;
+        for (int i = from; i < to; i++) {
+            int digit = Character.digit(buffer[i], radix);
+            if (digit < 0) {
+                throw new IOException("数値を読み取れません");
+            }
+            value = value * radix + digit;
+        }
+        return value;
+    }
+}
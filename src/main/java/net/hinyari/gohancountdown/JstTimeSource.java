@@ -0,0 +1,89 @@
+package net.hinyari.gohancountdown;
+
+import java.io.IOException;
+
+/**
+ * NICTのjstから時刻を取得する
+ * 応答の本文は「1545663600.123」のような秒と小数だけのHTMLなので、DOMにせずバイト列のまま数字を拾う
+ * -Dgohancountdown.jst.url で取得先を、-Dgohancountdown.http.timeout でタイムアウト(ms)を変えられる
+ */
+public class JstTimeSource extends HttpTimeSource
+{
+    public static final String DEFAULT_URL = "http://ntp-a1.nict.go.jp/cgi-bin/jst";
+    // これより桁の少ない数字は時刻とみなさない(2001年以降の秒は10桁)
+    private static final int MIN_SECONDS_DIGITS = 9;
+
+    public JstTimeSource()
+    {
+        this(System.getProperty("gohancountdown.jst.url", DEFAULT_URL),
+                Integer.getInteger("gohancountdown.http.timeout", DEFAULT_TIMEOUT));
+    }
+
+    public JstTimeSource(String url, int timeout)
+    {
+        super("GET", url, timeout);
+    }
+
+    @Override
+    public String getName()
+    {
+        return "jst";
+    }
+
+    @Override
+    long parseResponse() throws IOException
+    {
+        if (status != 200) {
+            throw new IOException(getUrl() + " がHTTP " + status + " を返しました");
+        }
+        return parseJst(buffer, bodyStart, bodyEnd);
+    }
+
+    /**
+     * 本文から最初の「秒.小数」を探してエポックミリ秒にする
+     * タグの中は読み飛ばし、秒がMIN_SECONDS_DIGITS桁に満たない数字は無視する
+     *
+     * @throws IOException 時刻らしい数字がない場合
+     */
+    static long parseJst(byte[] body, int from, int to) throws IOException
+    {
+        int i = from;
+        while (i < to) {
+            byte c = body[i];
+            if (c == '<') {
+                while (i < to && body[i] != '>') {
+                    i++;
+                }
+                i++;
+                continue;
+            }
+            if (c < '0' || c > '9') {
+                i++;
+                continue;
+            }
+            long seconds = 0;
+            int digits = 0;
+            while (i < to && body[i] >= '0' && body[i] <= '9') {
+                if (digits < 18) {
+                    seconds = seconds * 10 + (body[i] - '0');
+                }
+                digits++;
+                i++;
+            }
+            int millis = 0;
+            if (i < to && body[i] == '.') {
+                i++;
+                int scale = 100;
+                while (i < to && body[i] >= '0' && body[i] <= '9') {
+                    millis += (body[i] - '0') * scale;
+                    scale /= 10;
+                    i++;
+                }
+            }
+            if (digits >= MIN_SECONDS_DIGITS && digits <= 12) {
+                return seconds * 1000L + millis;
+            }
+        }
+        throw new IOException("応答に時刻が含まれていません");
+    }
+}
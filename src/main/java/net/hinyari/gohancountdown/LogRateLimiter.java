@@ -0,0 +1,32 @@
+package net.hinyari.gohancountdown;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 同じ内容のログを一定の間隔に1回だけ出力させる
+ */
+public final class LogRateLimiter
+{
+    private final long intervalNanos;
+    private final AtomicLong next = new AtomicLong(System.nanoTime());
+    private final AtomicLong suppressed = new AtomicLong();
+
+    public LogRateLimiter(long intervalMillis)
+    {
+        this.intervalNanos = intervalMillis * 1_000_000L;
+    }
+
+    /**
+     * 出力してよければ前回から間引いた件数を、間引く場合は-1を返す
+     */
+    public long acquire()
+    {
+        long now = System.nanoTime();
+        long n = next.get();
+        if (now - n >= 0 && next.compareAndSet(n, now + intervalNanos)) {
+            return suppressed.getAndSet(0);
+        }
+        suppressed.incrementAndGet();
+        return -1;
+    }
+}
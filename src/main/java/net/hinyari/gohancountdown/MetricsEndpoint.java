@@ -0,0 +1,96 @@
+package net.hinyari.gohancountdown;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+
+/**
+ * CountDownMetricsの内容をテキストで返す
+ * GET /metrics でPrometheusのテキスト形式を返す
+ */
+public class MetricsEndpoint implements Closeable
+{
+    private static final AsyncLogger logger = AsyncLogger.getLogger(MetricsEndpoint.class);
+
+    private final HttpServer server;
+
+    public MetricsEndpoint(InetSocketAddress address, CountDownMetrics metrics) throws IOException
+    {
+        server = HttpServer.create(address, 0);
+        server.createContext("/metrics", exchange -> respond(exchange, metrics));
+        // 計測値の取得で表示のスレッドを使わないよう専用のスレッドで処理する
+        server.setExecutor(Executors.newSingleThreadExecutor(r ->
+        {
+            Thread thread = new Thread(r, "MetricsEndpoint");
+            thread.setDaemon(true);
+            return thread;
+        }));
+    }
+
+    /**
+     * -Dgohancountdown.metrics.port が指定されていれば起動する
+     * 待ち受けるアドレスは -Dgohancountdown.metrics.host で変えられる(既定は127.0.0.1)
+     *
+     * @return 起動したもの。指定がないか起動できなかった場合はnull
+     */
+    public static MetricsEndpoint startFromSystemProperties()
+    {
+        Integer port = Integer.getInteger("gohancountdown.metrics.port");
+        if (port == null) {
+            return null;
+        }
+        String host = System.getProperty("gohancountdown.metrics.host", "127.0.0.1");
+        try {
+            MetricsEndpoint endpoint = new MetricsEndpoint(new InetSocketAddress(host, port),
+                    CountDownMetrics.getInstance());
+            endpoint.start();
+            return endpoint;
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "計測値の公開を開始できませんでした", e);
+            return null;
+        }
+    }
+
+    public void start()
+    {
+        server.start();
+        CountDownMetrics.getInstance().register();
+        logger.info("計測値を公開しました http://" + getAddress().getHostString() + ":" + getAddress().getPort() + "/metrics");
+    }
+
+    public InetSocketAddress getAddress()
+    {
+        return server.getAddress();
+    }
+
+    @Override
+    public void close()
+    {
+        server.stop(0);
+    }
+
+    private static void respond(HttpExchange exchange, CountDownMetrics metrics) throws IOException
+    {
+        try {
+            if (!exchange.getRequestMethod().equals("GET")) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = metrics.toText().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=UTF-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package net.hinyari.gohancountdown;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 複数の時刻源の結果からMarzulloのアルゴリズムで正しいオフセットを選ぶ
+ * 各結果を [offset - delay/2, offset + delay/2] の区間とみなし、
+ * 問い合わせた時刻源の過半数の区間が重なる範囲の中央をオフセットとする
+ */
+public final class OffsetSelector
+{
+    // 遅延が0でも最低限持たせる区間の半径(ms)。ミリ秒単位の時刻とサーバ側の揺らぎの分
+    private static final long MIN_DISPERSION = 10;
+
+    private final List<TimeSample> truechimers;
+    private final List<TimeSample> falsetickers;
+    private final long low;
+    private final long high;
+
+    private OffsetSelector(List<TimeSample> truechimers, List<TimeSample> falsetickers, long low, long high)
+    {
+        this.truechimers = truechimers;
+        this.falsetickers = falsetickers;
+        this.low = low;
+        this.high = high;
+    }
+
+    /**
+     * 過半数は応答した数ではなく問い合わせた数で数える
+     * 応答しなかった時刻源を数から外すと、1つしか応答しなかった回にその1つだけで合意したことになってしまう
+     *
+     * @param samples 応答のあった結果
+     * @param queried 問い合わせた時刻源の数
+     * @return 問い合わせた数の過半数が重なる範囲がなければnull
+     */
+    public static OffsetSelector select(List<TimeSample> samples, int queried)
+    {
+        int n = samples.size();
+        if (queried < n) {
+            throw new IllegalArgumentException("queried < samples.size()");
+        }
+        if (n == 0) {
+            return null;
+        }
+        // 区間の端を並べる。始点は+1、終点は-1として同じ位置では始点を先に数える
+        long[][] edges = new long[n * 2][];
+        for (int i = 0; i < n; i++) {
+            TimeSample s = samples.get(i);
+            long radius = s.getDelay() / 2 + MIN_DISPERSION;
+            edges[i * 2] = new long[]{s.getOffset() - radius, 1};
+            edges[i * 2 + 1] = new long[]{s.getOffset() + radius, -1};
+        }
+        Arrays.sort(edges, (a, b) -> a[0] != b[0] ? Long.compare(a[0], b[0]) : Long.compare(b[1], a[1]));
+
+        int count = 0;
+        int best = 0;
+        long low = 0;
+        long high = 0;
+        for (int i = 0; i < edges.length; i++) {
+            count += edges[i][1];
+            if (count > best) {
+                best = count;
+                low = edges[i][0];
+                high = edges[i + 1][0];
+            }
+        }
+        if (best <= queried / 2) {
+            return null;
+        }
+
+        List<TimeSample> truechimers = new ArrayList<>();
+        List<TimeSample> falsetickers = new ArrayList<>();
+        for (TimeSample s : samples) {
+            long radius = s.getDelay() / 2 + MIN_DISPERSION;
+            if (s.getOffset() - radius <= high && s.getOffset() + radius >= low) {
+                truechimers.add(s);
+            } else {
+                falsetickers.add(s);
+            }
+        }
+        return new OffsetSelector(truechimers, falsetickers, low, high);
+    }
+
+    public List<TimeSample> getTruechimers()
+    {
+        return truechimers;
+    }
+
+    public List<TimeSample> getFalsetickers()
+    {
+        return falsetickers;
+    }
+
+    /**
+     * 選んだオフセット(重なった範囲の中央)
+     */
+    public long getOffset()
+    {
+        return low + (high - low) / 2;
+    }
+
+    /**
+     * 重なった範囲の幅。オフセットの誤差の目安になる
+     */
+    public long getWidth()
+    {
+        return high - low;
+    }
+
+    /**
+     * 最も遅延の小さい正しい結果を基に、選んだオフセットの結果を作る
+     */
+    public TimeSample toSample()
+    {
+        TimeSample best = truechimers.get(0);
+        for (TimeSample s : truechimers) {
+            if (s.getDelay() < best.getDelay()) {
+                best = s;
+            }
+        }
+        return new TimeSample(best.getServer(), getOffset(), best.getDelay(),
+                best.getLocalTimeMillis(), best.getLocalNanos());
+    }
+}
@@ -0,0 +1,135 @@
+package net.hinyari.gohancountdown;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongConsumer;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+
+/**
+ * 補正済みの時計の秒の境目ごとにタスクを実行する
+ * 固定周期で回すのではなく、起きるたびに時計から次の境目までの待ち時間を計算し直すので、
+ * 実行が遅れても時計が補正されてもずれが積み重ならない
+ * 表示が見えない間などは間隔を延ばせる。その場合もその間隔の境目に揃えて実行する
+ */
+public class SecondAlignedScheduler
+{
+    private static final AsyncLogger logger = AsyncLogger.getLogger(SecondAlignedScheduler.class);
+
+    // 統計をログに出す間隔(tick数)
+    private static final long REPORT_INTERVAL = 600;
+
+    private final ScheduledExecutorService service;
+    private final LongSupplier clock;
+    private final LongConsumer task;
+    private final TickStatistics statistics = new TickStatistics();
+
+    private long nextEdge = Long.MIN_VALUE;
+    private ScheduledFuture<?> pending;
+    private volatile boolean running;
+    // 実行する間隔(ms)。1000の倍数
+    private volatile long period = 1000L;
+
+    /**
+     * @param service タスクを実行するスレッド
+     * @param clock   補正済みの現在時刻(エポックミリ秒)
+     * @param task    秒の境目の時刻を受け取るタスク
+     */
+    public SecondAlignedScheduler(ScheduledExecutorService service, LongSupplier clock, LongConsumer task)
+    {
+        this.service = service;
+        this.clock = clock;
+        this.task = task;
+    }
+
+    /**
+     * すぐに1回実行し、以降は秒の境目ごとに実行する
+     */
+    public void start()
+    {
+        running = true;
+        service.execute(this::wake);
+    }
+
+    public void stop()
+    {
+        running = false;
+    }
+
+    /**
+     * 実行する間隔を変える。次の実行から反映される
+     *
+     * @param period 間隔(ms)。1000の倍数にする
+     */
+    public void setPeriod(long period)
+    {
+        if (period < 1000L || period % 1000L != 0) {
+            throw new IllegalArgumentException("間隔は1000ms単位で指定してください: " + period);
+        }
+        this.period = period;
+    }
+
+    public long getPeriod()
+    {
+        return period;
+    }
+
+    /**
+     * 待っている実行を取り消してすぐに1回実行し、以降はまた境目ごとに実行する
+     */
+    public void wakeNow()
+    {
+        service.execute(() ->
+        {
+            if (pending != null) {
+                pending.cancel(false);
+            }
+            // 境目以外で実行するので遅れとしては数えない
+            nextEdge = Long.MIN_VALUE;
+            wake();
+        });
+    }
+
+    public TickStatistics getStatistics()
+    {
+        return statistics;
+    }
+
+    private void wake()
+    {
+        if (!running) {
+            return;
+        }
+        long now = clock.getAsLong();
+        try {
+            if (now < nextEdge) {
+                // 早く起きすぎたので残りを待つ
+                schedule(nextEdge - now);
+                return;
+            }
+            if (nextEdge != Long.MIN_VALUE) {
+                statistics.record(now - nextEdge);
+                if (statistics.getCount() % REPORT_INTERVAL == 0) {
+                    logger.info(statistics.toString());
+                }
+            }
+            task.accept(now);
+        } catch (RuntimeException e) {
+            // 例外でスケジュールが止まらないようにする
+            logger.log(Level.WARNING, "tickの実行に失敗しました", e);
+        }
+        // タスクの実行時間や時計の補正を反映するため、時計を読み直す
+        now = clock.getAsLong();
+        long p = period;
+        nextEdge = (Math.floorDiv(now, p) + 1) * p;
+        schedule(nextEdge - now);
+    }
+
+    private void schedule(long delay)
+    {
+        if (running && !service.isShutdown()) {
+            pending = service.schedule(this::wake, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+}
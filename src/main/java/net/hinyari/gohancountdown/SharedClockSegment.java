@@ -0,0 +1,279 @@
+package net.hinyari.gohancountdown;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.logging.Level;
+
+/**
+ * 最後に同期したオフセットを同じマシンの他のインスタンスと共有するメモリマップドファイル
+ * 書き込みはseqlockで公開し、読み出し側はロックを取らずに読み、途中で書き換えられていたら読み直す
+ * ネットワークで同期するのはロックファイルを取れた1つのインスタンスだけで、他はここから読む
+ *
+ * mapしたメモリへのアクセスはJavaのメモリモデルの外なので、volatileの変数では他のプロセスから見た順序は保証されない
+ * そのためseqと中身の読み書きの間にはsun.misc.Unsafe.fullFenceを挟む
+ * さらに中身のチェックサムも書いておき、読み出し側で合わなければ読み直す。Unsafeが使えないJVMではfenceなしで動くので、
+ * この検査だけが頼りになる。64ビットのハッシュなので、壊れた内容を通してしまう確率は無視できるほど小さいが0ではない
+ *
+ * レイアウト(リトルエンディアン、128バイト)
+ * <pre>
+ *  0 int    MAGIC
+ *  4 int    VERSION
+ *  8 long   seq       奇数の間は書き込み中
+ * 16 long   offset    補正済み時刻とシステム時刻の差(ms)
+ * 24 long   syncedAt  同期した時点のシステム時刻(ms)
+ * 32 double ppm       推定した周波数誤差
+ * 40 long   delay     同期した時の往復遅延(ms)。小さいほど確か
+ * 48 long   checksum  seqから名前までのハッシュ
+ * 56 int    length    時刻源の名前のバイト数
+ * 60 byte[] server    時刻源の名前(UTF-8、最大68バイト)
+ * </pre>
+ */
+public class SharedClockSegment implements Closeable
+{
+    private static final AsyncLogger logger = AsyncLogger.getLogger(SharedClockSegment.class);
+
+    private static final int MAGIC = 0x47434453;
+    private static final int VERSION = 2;
+    private static final int SIZE = 128;
+    private static final int MAGIC_AT = 0;
+    private static final int VERSION_AT = 4;
+    private static final int SEQ_AT = 8;
+    private static final int OFFSET_AT = 16;
+    private static final int SYNCED_AT = 24;
+    private static final int PPM_AT = 32;
+    private static final int DELAY_AT = 40;
+    private static final int CHECKSUM_AT = 48;
+    private static final int LENGTH_AT = 56;
+    private static final int SERVER_AT = 60;
+    private static final int SERVER_MAX = SIZE - SERVER_AT;
+    // 書き込み中の値を読み続けないよう、読み直しはこの回数まで
+    private static final int MAX_RETRIES = 100;
+
+    // 代表のインスタンスは最長でClockDiscipline.MAX_INTERVALごとにしか書き込まない
+    public static final long DEFAULT_MAX_AGE = 2 * ClockDiscipline.MAX_INTERVAL;
+
+    // mapしたメモリへの読み書きの順序を保つUnsafe.fullFence。使えなければnull
+    // 内部APIを直接参照しないようMethodHandleで呼ぶ。static finalなのでJITで直接の呼び出しと同じになる
+    private static final MethodHandle FULL_FENCE = loadFullFence();
+
+    private final FileChannel channel;
+    private final FileChannel lockChannel;
+    private final MappedByteBuffer buffer;
+    private final long maxAge;
+    private FileLock lock;
+
+    public SharedClockSegment(File file, long maxAge) throws IOException
+    {
+        this.maxAge = maxAge;
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException(parent + " を作成できません");
+        }
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        lockChannel = FileChannel.open(new File(file.getPath() + ".lock").toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE);
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, SIZE);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        // 最初に作ったインスタンスがヘッダを書く。形式が違えば作り直す
+        if (tryLead() && (buffer.getInt(MAGIC_AT) != MAGIC || buffer.getInt(VERSION_AT) != VERSION)) {
+            for (int i = 0; i < SIZE; i++) {
+                buffer.put(i, (byte) 0);
+            }
+            buffer.putInt(VERSION_AT, VERSION);
+            buffer.putInt(MAGIC_AT, MAGIC);
+        }
+    }
+
+    /**
+     * システムプロパティの設定から開く
+     * -Dgohancountdown.shared=false で無効にでき、-Dgohancountdown.shared.file でファイルを、
+     * -Dgohancountdown.shared.maxAge で使ってよい古さ(ms)を変えられる
+     *
+     * @return 開いたもの。無効にされているか開けなかった場合はnull
+     */
+    public static SharedClockSegment fromSystemProperties()
+    {
+        if (!Boolean.parseBoolean(System.getProperty("gohancountdown.shared", "true"))) {
+            return null;
+        }
+        String path = System.getProperty("gohancountdown.shared.file",
+                new File(System.getProperty("java.io.tmpdir"), "gohancountdown-clock.dat").getPath());
+        long maxAge = Long.getLong("gohancountdown.shared.maxAge", DEFAULT_MAX_AGE);
+        try {
+            return new SharedClockSegment(new File(path), maxAge);
+        } catch (IOException | RuntimeException e) {
+            logger.log(Level.WARNING, "共有ファイルを開けませんでした", e);
+            return null;
+        }
+    }
+
+    /**
+     * ロックファイルを取れていればネットワークで同期する役になる
+     * 持っていたインスタンスが終了すればOSがロックを外すので、毎回の同期の前に呼んで引き継ぐ
+     */
+    public synchronized boolean tryLead()
+    {
+        if (lock != null && lock.isValid()) {
+            return true;
+        }
+        try {
+            lock = lockChannel.tryLock();
+        } catch (IOException | OverlappingFileLockException e) {
+            lock = null;
+        }
+        if (lock != null) {
+            logger.info("このインスタンスが時刻を取得します");
+        }
+        return lock != null;
+    }
+
+    public synchronized boolean isLeader()
+    {
+        return lock != null && lock.isValid();
+    }
+
+    /**
+     * 同期した結果を公開する
+     */
+    public synchronized void publish(TimeSample sample, double ppm)
+    {
+        byte[] server = sample.getServer() == null ? new byte[0] : sample.getServer().getBytes(StandardCharsets.UTF_8);
+        int length = Math.min(server.length, SERVER_MAX);
+        long seq = buffer.getLong(SEQ_AT);
+        buffer.putLong(SEQ_AT, seq + 1);
+        fence();
+        buffer.putLong(OFFSET_AT, sample.getOffset());
+        buffer.putLong(SYNCED_AT, sample.getLocalTimeMillis());
+        buffer.putDouble(PPM_AT, ppm);
+        buffer.putLong(DELAY_AT, sample.getDelay());
+        buffer.putInt(LENGTH_AT, length);
+        for (int i = 0; i < length; i++) {
+            buffer.put(SERVER_AT + i, server[i]);
+        }
+        buffer.putLong(CHECKSUM_AT, checksum(seq + 2, sample.getOffset(), sample.getLocalTimeMillis(),
+                Double.doubleToRawLongBits(ppm), sample.getDelay(), server, length));
+        fence();
+        buffer.putLong(SEQ_AT, seq + 2);
+    }
+
+    /**
+     * 公開されている結果を現在の時点のサンプルとして読む
+     * オフセットは同期してからの経過時間と周波数誤差で外挿する
+     *
+     * @param now システム時刻
+     * @return 使える結果がないか、maxAgeより古ければnull
+     */
+    public TimeSample read(long now)
+    {
+        // 古い形式のまま代表が動いている間は読まない
+        if (buffer.getInt(MAGIC_AT) != MAGIC || buffer.getInt(VERSION_AT) != VERSION) {
+            return null;
+        }
+        for (int retry = 0; retry < MAX_RETRIES; retry++) {
+            long seq = buffer.getLong(SEQ_AT);
+            if ((seq & 1) != 0) {
+                Thread.yield();
+                continue;
+            }
+            fence();
+            long offset = buffer.getLong(OFFSET_AT);
+            long syncedAt = buffer.getLong(SYNCED_AT);
+            double ppm = buffer.getDouble(PPM_AT);
+            long delay = buffer.getLong(DELAY_AT);
+            long checksum = buffer.getLong(CHECKSUM_AT);
+            int length = Math.max(0, Math.min(buffer.getInt(LENGTH_AT), SERVER_MAX));
+            byte[] server = new byte[length];
+            for (int i = 0; i < length; i++) {
+                server[i] = buffer.get(SERVER_AT + i);
+            }
+            fence();
+            if (buffer.getLong(SEQ_AT) != seq) {
+                continue;
+            }
+            if (seq != 0 && checksum(seq, offset, syncedAt, Double.doubleToRawLongBits(ppm), delay, server, length)
+                    != checksum) {
+                // 書き込みと重なったのにseqで気付けなかった
+                Thread.yield();
+                continue;
+            }
+            long age = now - syncedAt;
+            if (seq == 0 || age < 0 || age > maxAge) {
+                return null;
+            }
+            long extrapolated = offset + (long) (age * ppm / 1e6);
+            return new TimeSample(new String(server, StandardCharsets.UTF_8), extrapolated, delay, now);
+        }
+        return null;
+    }
+
+    @Override
+    public synchronized void close() throws IOException
+    {
+        if (lock != null) {
+            lock.release();
+            lock = null;
+        }
+        lockChannel.close();
+        channel.close();
+    }
+
+    /**
+     * 前後のmapしたメモリへの読み書きが入れ替わらないようにする。CPUとJITの両方に効く
+     */
+    private static void fence()
+    {
+        if (FULL_FENCE != null) {
+            try {
+                FULL_FENCE.invokeExact();
+            } catch (Throwable e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    private static MethodHandle loadFullFence()
+    {
+        try {
+            Class<?> type = Class.forName("sun.misc.Unsafe");
+            Field field = type.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            return MethodHandles.lookup().findVirtual(type, "fullFence", MethodType.methodType(void.class))
+                    .bindTo(field.get(null));
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            logger.log(Level.WARNING, "Unsafeを使えないため、共有ファイルの読み出しはチェックサムだけで検査します", e);
+            return null;
+        }
+    }
+
+    /**
+     * FNV-1aを8バイト単位にしたハッシュ。seqも混ぜるので、前の書き込みのチェックサムとは一致しない
+     */
+    private static long checksum(long seq, long offset, long syncedAt, long ppm, long delay, byte[] server,
+                                 int length)
+    {
+        long h = 0xcbf29ce484222325L;
+        h = (h ^ seq) * 0x100000001b3L;
+        h = (h ^ offset) * 0x100000001b3L;
+        h = (h ^ syncedAt) * 0x100000001b3L;
+        h = (h ^ ppm) * 0x100000001b3L;
+        h = (h ^ delay) * 0x100000001b3L;
+        h = (h ^ length) * 0x100000001b3L;
+        for (int i = 0; i < length; i++) {
+            h = (h ^ (server[i] & 0xff)) * 0x100000001b3L;
+        }
+        return h;
+    }
+}
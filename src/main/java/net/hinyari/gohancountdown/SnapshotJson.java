@@ -0,0 +1,87 @@
+package net.hinyari.gohancountdown;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * tickの表示内容をJSONにする
+ */
+public final class SnapshotJson
+{
+    private SnapshotJson()
+    {
+    }
+
+    public static byte[] encode(TickSnapshot s)
+    {
+        StringBuilder sb = new StringBuilder(256);
+        append(sb, s);
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    public static StringBuilder append(StringBuilder sb, TickSnapshot s)
+    {
+        sb.append("{\"now\":").append(s.getNowMillis());
+        sb.append(",\"target\":").append(s.getTargetMillis());
+        sb.append(",\"until\":").append(s.getUntilSeconds());
+        sb.append(",\"since\":").append(s.getSinceSeconds());
+        sb.append(",\"next\":").append(s.getNextSeconds());
+        sb.append(",\"passed\":").append(s.isPassed());
+        sb.append(",\"resync\":").append(s.getResyncSeconds());
+        sb.append(",\"server\":");
+        appendString(sb, s.getServer());
+        sb.append(",\"status\":");
+        appendString(sb, s.getAppStatus());
+        sb.append(",\"error\":");
+        appendString(sb, s.getErrorTime());
+        WorldNewYearQueue.Status world = s.getWorld();
+        if (world != null) {
+            sb.append(",\"world\":{\"next\":");
+            appendString(sb, world.getNextZone().getId());
+            sb.append(",\"nextAt\":").append(world.getNextMillis());
+            sb.append(",\"nextYear\":").append(world.getNextYear());
+            sb.append(",\"nextCount\":").append(world.getNextCount());
+            sb.append(",\"last\":");
+            appendString(sb, world.getLastZone() == null ? null : world.getLastZone().getId());
+            sb.append(",\"lastYear\":").append(world.getLastYear());
+            sb.append(",\"lastCount\":").append(world.getLastCount());
+            sb.append('}');
+        }
+        return sb.append('}');
+    }
+
+    static void appendString(StringBuilder sb, String value)
+    {
+        if (value == null) {
+            sb.append("null");
+            return;
+        }
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        sb.append('"');
+    }
+}
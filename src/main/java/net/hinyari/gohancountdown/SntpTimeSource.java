@@ -0,0 +1,132 @@
+package net.hinyari.gohancountdown;
+
+import org.apache.commons.net.ntp.NTPUDPClient;
+import org.apache.commons.net.ntp.NtpV3Packet;
+import org.apache.commons.net.ntp.TimeInfo;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Level;
+
+/**
+ * SNTP(RFC 4330)で時刻を取得する
+ * 4つのタイムスタンプからオフセットと往復遅延を計算するので、通信時間の影響を受けない
+ */
+public class SntpTimeSource
+{
+    private static final AsyncLogger logger = AsyncLogger.getLogger(SntpTimeSource.class);
+
+    public static final String DEFAULT_SERVERS = "ntp.nict.jp,ntp.jst.mfeed.ad.jp,time.cloudflare.com";
+    public static final int DEFAULT_TIMEOUT = 2000;
+
+    private final List<String> servers;
+    private final int timeout;
+
+    /**
+     * @param servers "host" または "host:port" のリスト。先頭から順に問い合わせる
+     * @param timeout 1回の問い合わせのタイムアウト(ms)
+     */
+    public SntpTimeSource(List<String> servers, int timeout)
+    {
+        if (servers.isEmpty()) {
+            throw new IllegalArgumentException("servers is empty");
+        }
+        this.servers = Collections.unmodifiableList(new ArrayList<>(servers));
+        this.timeout = timeout;
+    }
+
+    /**
+     * システムプロパティの設定から作る
+     * -Dgohancountdown.ntp.servers=ntp.nict.jp,time.google.com -Dgohancountdown.ntp.timeout=2000
+     */
+    public static SntpTimeSource fromSystemProperties()
+    {
+        List<String> servers = new ArrayList<>();
+        for (String server : System.getProperty("gohancountdown.ntp.servers", DEFAULT_SERVERS).split(",")) {
+            if (!server.trim().isEmpty()) {
+                servers.add(server.trim());
+            }
+        }
+        int timeout = Integer.getInteger("gohancountdown.ntp.timeout", DEFAULT_TIMEOUT);
+        return new SntpTimeSource(servers, timeout);
+    }
+
+    public List<String> getServers()
+    {
+        return servers;
+    }
+
+    public int getTimeout()
+    {
+        return timeout;
+    }
+
+    /**
+     * 設定されたサーバに順に問い合わせ、最初に成功した結果を返す
+     *
+     * @throws IOException すべてのサーバで失敗した場合
+     */
+    public TimeSample query() throws IOException
+    {
+        IOException last = null;
+        for (String server : servers) {
+            try {
+                return query(server);
+            } catch (IOException e) {
+                logger.log(Level.WARNING, server + " からの時刻取得に失敗しました", e);
+                last = e;
+            }
+        }
+        throw last;
+    }
+
+    /**
+     * 1つのサーバに問い合わせる
+     */
+    public TimeSample query(String server) throws IOException
+    {
+        String host = server;
+        int port = NTPUDPClient.DEFAULT_PORT;
+        int colon = server.lastIndexOf(':');
+        if (colon > 0 && server.indexOf(':') == colon) {
+            host = server.substring(0, colon);
+            port = Integer.parseInt(server.substring(colon + 1));
+        }
+
+        NTPUDPClient client = new NTPUDPClient();
+        client.setDefaultTimeout(timeout);
+        try {
+            client.open();
+            TimeInfo info = client.getTime(InetAddress.getByName(host), port);
+            return toSample(server, info, System.nanoTime());
+        } finally {
+            client.close();
+        }
+    }
+
+    static TimeSample toSample(String server, TimeInfo info, long returnNanos) throws IOException
+    {
+        NtpV3Packet message = info.getMessage();
+        // 同期していないサーバやKiss-o'-Deathの応答は使わない
+        if (message.getLeapIndicator() == NtpV3Packet.LI_ALARM_CONDITION) {
+            throw new IOException(server + " は同期していません");
+        }
+        if (message.getStratum() == 0) {
+            throw new IOException(server + " から拒否されました(" + message.getReferenceIdString() + ")");
+        }
+        long t1 = message.getOriginateTimeStamp().getTime();
+        long t2 = message.getReceiveTimeStamp().getTime();
+        long t3 = message.getTransmitTimeStamp().getTime();
+        long t4 = info.getReturnTime();
+        if (message.getOriginateTimeStamp().ntpValue() == 0 || message.getTransmitTimeStamp().ntpValue() == 0) {
+            throw new IOException(server + " の応答が不正です");
+        }
+        // オフセット = ((T2 - T1) + (T3 - T4)) / 2、遅延 = (T4 - T1) - (T3 - T2)
+        long offset = ((t2 - t1) + (t3 - t4)) / 2;
+        long delay = Math.max(0, (t4 - t1) - (t3 - t2));
+        return new TimeSample(server, offset, delay, t4, returnNanos);
+    }
+}
@@ -0,0 +1,129 @@
+package net.hinyari.gohancountdown;
+
+/**
+ * 時刻源ごとの応答時間と信頼性
+ * ntpdのreachレジスタと同じく直近8回の成否をビットで持つ
+ */
+public class SourceStatistics
+{
+    // 問い合わせを間引く最大の段階。2^MAX_BACKOFF 回に1回まで減らす
+    static final int MAX_BACKOFF = 3;
+    // RTTの平滑化係数
+    private static final double RTT_GAIN = 0.25;
+
+    private final String server;
+    private int reach;
+    private double rtt = -1;
+    private long lastOffset;
+    private long successes;
+    private long failures;
+    private long falsetickers;
+    private int backoff;
+
+    public SourceStatistics(String server)
+    {
+        this.server = server;
+    }
+
+    public String getServer()
+    {
+        return server;
+    }
+
+    synchronized void recordSuccess(TimeSample sample)
+    {
+        reach = ((reach << 1) | 1) & 0xff;
+        rtt = rtt < 0 ? sample.getDelay() : rtt + (sample.getDelay() - rtt) * RTT_GAIN;
+        lastOffset = sample.getOffset();
+        successes++;
+    }
+
+    synchronized void recordFailure()
+    {
+        reach = (reach << 1) & 0xff;
+        failures++;
+        backoff = Math.min(MAX_BACKOFF, backoff + 1);
+    }
+
+    /**
+     * 他の時刻源と合わない時刻を返した
+     */
+    synchronized void recordFalseticker()
+    {
+        falsetickers++;
+        backoff = Math.min(MAX_BACKOFF, backoff + 1);
+    }
+
+    /**
+     * 正しい時刻を返した。RTTが他より極端に遅ければ間引く
+     */
+    synchronized void recordTruechimer(double bestRtt)
+    {
+        if (bestRtt > 0 && rtt > bestRtt * 3) {
+            backoff = Math.min(MAX_BACKOFF, backoff + 1);
+        } else {
+            backoff = 0;
+        }
+    }
+
+    /**
+     * 指定した回に問い合わせるかどうか
+     */
+    synchronized boolean isDue(long round)
+    {
+        return round % (1L << backoff) == 0;
+    }
+
+    /**
+     * 直近8回のうち応答があった割合
+     */
+    public synchronized double getReliability()
+    {
+        return Integer.bitCount(reach) / 8.0;
+    }
+
+    public synchronized int getReach()
+    {
+        return reach;
+    }
+
+    /**
+     * 平滑化した往復遅延(ms)。まだ応答がなければ-1
+     */
+    public synchronized double getRtt()
+    {
+        return rtt;
+    }
+
+    public synchronized long getLastOffset()
+    {
+        return lastOffset;
+    }
+
+    public synchronized long getSuccesses()
+    {
+        return successes;
+    }
+
+    public synchronized long getFailures()
+    {
+        return failures;
+    }
+
+    public synchronized long getFalsetickers()
+    {
+        return falsetickers;
+    }
+
+    public synchronized int getBackoff()
+    {
+        return backoff;
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        return String.format("%s reach=%03o rtt=%.1fms offset=%dms backoff=%d",
+                server, reach, rtt, lastOffset, backoff);
+    }
+}
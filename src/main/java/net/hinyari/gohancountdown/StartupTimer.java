@@ -0,0 +1,62 @@
+package net.hinyari.gohancountdown;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * 起動から最初の表示までの時間を測る
+ * -Dgohancountdown.startup.exit=true を指定すると、最初の表示で時間を標準出力に出して終了する
+ * 起動時間の計測やAppCDSのアーカイブを作るための試し起動に使う
+ */
+public final class StartupTimer
+{
+    private static final AsyncLogger logger = AsyncLogger.getLogger(StartupTimer.class);
+
+    private static volatile long startNanos = System.nanoTime();
+    private static volatile long firstFrameMillis = -1;
+    private static final boolean EXIT = Boolean.getBoolean("gohancountdown.startup.exit");
+
+    private StartupTimer()
+    {
+    }
+
+    /**
+     * main()に入った時刻を記録する
+     */
+    public static void markStart()
+    {
+        startNanos = System.nanoTime();
+    }
+
+    /**
+     * 画面を最初に描いた時に呼ぶ。画面がなければ最初の配信で呼ぶ。2回目以降は何もしない
+     * 描画のたびに呼ばれてもよいよう、記録済みならロックを取らずに戻る
+     */
+    public static void markFirstFrame()
+    {
+        if (firstFrameMillis >= 0) {
+            return;
+        }
+        synchronized (StartupTimer.class) {
+            if (firstFrameMillis >= 0) {
+                return;
+            }
+            firstFrameMillis = (System.nanoTime() - startNanos) / 1_000_000L;
+        }
+        // JVMの起動時刻は管理用のクラスを読み込むので、表示した後で取得する
+        long fromJvm = System.currentTimeMillis() - ManagementFactory.getRuntimeMXBean().getStartTime();
+        if (EXIT) {
+            // StartupBenchmarkが読む形式
+            System.out.println("startup " + fromJvm + " " + firstFrameMillis);
+            System.exit(0);
+        }
+        logger.info("起動から最初の表示まで " + firstFrameMillis + "ms (JVMの起動から " + fromJvm + "ms)");
+    }
+
+    /**
+     * main()から最初の表示までの時間(ms)。まだ表示していなければ-1
+     */
+    public static long getFirstFrameMillis()
+    {
+        return firstFrameMillis;
+    }
+}
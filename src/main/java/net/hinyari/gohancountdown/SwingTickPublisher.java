@@ -0,0 +1,163 @@
+package net.hinyari.gohancountdown;
+
+import javax.swing.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * tickの表示内容をEDTに渡してラベルへ反映する
+ * EDTが詰まっている間に届いた古い内容は捨て、最新のものだけを1回のinvokeLaterで反映する
+ * 文字列はTickRendererで組み立て、数字はDigitDisplayに渡して変わった桁だけを描き直す
+ */
+public class SwingTickPublisher implements TickListener, Runnable
+{
+    private final AtomicReference<TickSnapshot> pending = new AtomicReference<>();
+    private final AtomicLong dropped = new AtomicLong();
+    private final CountDownMetrics metrics = CountDownMetrics.getInstance();
+    // 目標のこの時間前から最終カウントダウンの表示にする。0なら使わない
+    private final long finalWindow = Long.getLong("gohancountdown.final.window", FinalCountdownCanvas.DEFAULT_WINDOW);
+    // 最後にonTickが呼ばれた時刻(System.nanoTime)
+    private volatile long publishedNanos;
+
+    // 以下はEDTからしか触らない
+    private final GohanCountDown main;
+    private final TickRenderer renderer = new TickRenderer();
+    private final TickRenderer.Sink sink = this::update;
+    private final CachedLabel label_server;
+    private final CachedLabel label_appstatus;
+    private final CachedLabel label_errortime;
+    private final DigitDisplay label_nowtime;
+    private final DigitDisplay label_unt2019ss;
+    private final DigitDisplay label_untdays;
+    private final DigitDisplay label_unt2019h;
+    private final DigitDisplay label_unt2019m;
+    private final DigitDisplay label_unt2019s;
+    private final CachedLabel label_yearsfrom;
+    private final DigitDisplay label_from2018ss;
+    private final DigitDisplay label_unt2020ss;
+    // タイムゾーンごとの元日を使わない場合はnull
+    private final CachedLabel label_world;
+
+    public SwingTickPublisher(GohanCountDown main)
+    {
+        this.main = main;
+        label_server = new CachedLabel(main.getLabel_server());
+        label_appstatus = new CachedLabel(main.getLabel_appstatus());
+        label_errortime = new CachedLabel(main.getLabel_errortime());
+        label_nowtime = main.getLabel_nowtime();
+        label_unt2019ss = main.getLabel_unt2019ss();
+        label_untdays = main.getLabel_untdays();
+        label_unt2019h = main.getLabel_unt2019h();
+        label_unt2019m = main.getLabel_unt2019m();
+        label_unt2019s = main.getLabel_unt2019s();
+        label_yearsfrom = new CachedLabel(main.getLabel_yearsfrom());
+        label_from2018ss = main.getLabel_from2018ss();
+        label_unt2020ss = main.getLabel_unt2020ss();
+        label_world = main.getLabel_world() == null ? null : new CachedLabel(main.getLabel_world());
+    }
+
+    @Override
+    public void onTick(TickSnapshot snapshot)
+    {
+        publishedNanos = System.nanoTime();
+        // 前の内容がまだ反映されていなければ差し替えるだけでinvokeLaterはしない
+        if (pending.getAndSet(snapshot) == null) {
+            SwingUtilities.invokeLater(this);
+        } else {
+            dropped.incrementAndGet();
+            metrics.recordDroppedFrame();
+        }
+    }
+
+    @Override
+    public void run()
+    {
+        TickSnapshot snapshot = pending.getAndSet(null);
+        if (snapshot != null) {
+            render(snapshot);
+            metrics.recordPublishLatency((System.nanoTime() - publishedNanos) / 1_000_000L);
+        }
+    }
+
+    /**
+     * EDTが追いつかずに捨てた表示内容の数
+     */
+    public long getDroppedCount()
+    {
+        return dropped.get();
+    }
+
+    private void render(TickSnapshot s)
+    {
+        long remaining = s.getTargetMillis() - s.getNowMillis();
+        if (finalWindow > 0 && remaining > 0 && remaining <= finalWindow) {
+            main.startFinalCountdown(s.getTargetMillis());
+        }
+        if (main.isFinalCountdownActive()) {
+            // 最終カウントダウンの間はラベルは見えないので更新しない
+            return;
+        }
+        renderer.render(s, sink);
+    }
+
+    /**
+     * 組み立てた文字列を欄ごとのラベルに振り分ける
+     */
+    private void update(int field, CharSequence text)
+    {
+        switch (field) {
+            case TickRenderer.SERVER:
+                update(label_server, text);
+                break;
+            case TickRenderer.APP_STATUS:
+                update(label_appstatus, text);
+                break;
+            case TickRenderer.ERROR_TIME:
+                update(label_errortime, text);
+                break;
+            case TickRenderer.NOW:
+                label_nowtime.update(text);
+                break;
+            case TickRenderer.UNTIL_SECONDS:
+                label_unt2019ss.update(text);
+                break;
+            case TickRenderer.UNTIL_DAYS:
+                label_untdays.update(text);
+                break;
+            case TickRenderer.UNTIL_HOURS:
+                label_unt2019h.update(text);
+                break;
+            case TickRenderer.UNTIL_MINUTES:
+                label_unt2019m.update(text);
+                break;
+            case TickRenderer.UNTIL_SECONDS_OF_MINUTE:
+                label_unt2019s.update(text);
+                break;
+            case TickRenderer.YEARS_FROM:
+                update(label_yearsfrom, text);
+                break;
+            case TickRenderer.SINCE_SECONDS:
+                label_from2018ss.update(text);
+                break;
+            case TickRenderer.NEXT_SECONDS:
+                label_unt2020ss.update(text);
+                break;
+            case TickRenderer.WORLD:
+                if (label_world != null) {
+                    update(label_world, text);
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    private static void update(CachedLabel label, CharSequence text)
+    {
+        if (text instanceof DigitFormatter) {
+            label.update((DigitFormatter) text);
+        } else {
+            label.update(text.toString());
+        }
+    }
+}
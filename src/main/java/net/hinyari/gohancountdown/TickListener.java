@@ -0,0 +1,10 @@
+package net.hinyari.gohancountdown;
+
+/**
+ * tickごとに計算された表示内容を受け取る
+ * タイマーのスレッドから呼ばれるので、重い処理は別スレッドに渡すこと
+ */
+public interface TickListener
+{
+    void onTick(TickSnapshot snapshot);
+}
@@ -0,0 +1,88 @@
+package net.hinyari.gohancountdown;
+
+/**
+ * TickSnapshotから画面の各欄に表示する文字列を組み立てる
+ * Swingに依存しないので、画面なしのシミュレーションでも画面と同じ処理を通せる
+ * 文字列は使い回しのDigitFormatterで渡すことがあるので、受け取った側はその場で使い切ること
+ */
+public class TickRenderer
+{
+    // 表示欄
+    public static final int SERVER = 0;
+    public static final int APP_STATUS = 1;
+    public static final int ERROR_TIME = 2;
+    public static final int NOW = 3;
+    public static final int UNTIL_SECONDS = 4;
+    public static final int UNTIL_DAYS = 5;
+    public static final int UNTIL_HOURS = 6;
+    public static final int UNTIL_MINUTES = 7;
+    public static final int UNTIL_SECONDS_OF_MINUTE = 8;
+    public static final int YEARS_FROM = 9;
+    public static final int SINCE_SECONDS = 10;
+    public static final int NEXT_SECONDS = 11;
+    public static final int WORLD = 12;
+    public static final int FIELDS = 13;
+
+    /**
+     * 組み立てた文字列の出力先
+     */
+    public interface Sink
+    {
+        void update(int field, CharSequence text);
+    }
+
+    private final DigitFormatter formatter = new DigitFormatter();
+    // タイムゾーン名は長いものがあるので別に持つ
+    private final DigitFormatter worldFormatter = new DigitFormatter(128);
+
+    public void render(TickSnapshot s, Sink sink)
+    {
+        if (s.getServer() != null) {
+            sink.update(SERVER, s.getServer());
+        }
+        if (s.getResyncSeconds() >= 0) {
+            sink.update(APP_STATUS, formatter.clear().append("時刻を").append(s.getResyncSeconds()).append("秒後に再取得します…"));
+        } else if (s.getAppStatus() != null) {
+            sink.update(APP_STATUS, s.getAppStatus());
+        }
+        if (s.getErrorTime() != null) {
+            sink.update(ERROR_TIME, s.getErrorTime());
+        }
+
+        // 現在時刻を埋め込む
+        sink.update(NOW, formatter.clear().appendClock(s.getNowMillis(), s.getZone()));
+
+        long until = s.getUntilSeconds();
+        if (until <= 0) {
+            sink.update(UNTIL_SECONDS, "HAPPY NEW YEAR");
+        } else {
+            sink.update(UNTIL_SECONDS, formatter.clear().append(until));
+        }
+
+        // 2018年内
+        if (!s.isPassed()) {
+            sink.update(UNTIL_DAYS, formatter.clear().appendPadded(until / 86400, 3));
+            sink.update(UNTIL_HOURS, formatter.clear().appendPadded(until / 3600 % 24, 2));
+            sink.update(UNTIL_MINUTES, formatter.clear().appendPadded((until / 60) % 60, 2));
+            sink.update(UNTIL_SECONDS_OF_MINUTE, formatter.clear().appendPadded(until % 60, 2));
+        } else {    // 2019年後
+            sink.update(UNTIL_DAYS, "000");
+            sink.update(UNTIL_HOURS, "00");
+            sink.update(UNTIL_MINUTES, "00");
+            sink.update(UNTIL_SECONDS_OF_MINUTE, "00");
+            sink.update(YEARS_FROM, "2019年からの経過時間");
+        }
+        sink.update(SINCE_SECONDS, formatter.clear().append(s.getSinceSeconds()));
+        sink.update(NEXT_SECONDS, formatter.clear().append(s.getNextSeconds()));
+
+        WorldNewYearQueue.Status world = s.getWorld();
+        if (world != null) {
+            worldFormatter.clear().append("次の元日 ").append(world.getNextZone().getId());
+            if (world.getNextCount() > 1) {
+                worldFormatter.append(" ほか").append(world.getNextCount() - 1);
+            }
+            sink.update(WORLD, worldFormatter.append(" まで")
+                    .append(Math.floorDiv(world.getNextMillis() - s.getNowMillis(), 1000L)).append("秒"));
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package net.hinyari.gohancountdown;
+
+import java.time.ZoneId;
+
+/**
+ * 1回のtickで計算した表示内容
+ * 不変オブジェクトなので、タイマーのスレッドからEDTなどへそのまま渡せる
+ */
+public final class TickSnapshot
+{
+    private final long nowMillis;
+    private final ZoneId zone;
+    private final long targetMillis;
+    private final long untilSeconds;
+    private final long sinceSeconds;
+    private final long nextSeconds;
+    private final String server;
+    private final String appStatus;
+    private final int resyncSeconds;
+    private final String errorTime;
+    private final WorldNewYearQueue.Status world;
+
+    /**
+     * @param world タイムゾーンごとの元日の状態。使っていなければnull
+     */
+    public TickSnapshot(long nowMillis, ZoneId zone, long targetMillis, long untilSeconds, long sinceSeconds,
+                        long nextSeconds, String server, String appStatus, int resyncSeconds, String errorTime,
+                        WorldNewYearQueue.Status world)
+    {
+        this.nowMillis = nowMillis;
+        this.zone = zone;
+        this.targetMillis = targetMillis;
+        this.untilSeconds = untilSeconds;
+        this.sinceSeconds = sinceSeconds;
+        this.nextSeconds = nextSeconds;
+        this.server = server;
+        this.appStatus = appStatus;
+        this.resyncSeconds = resyncSeconds;
+        this.errorTime = errorTime;
+        this.world = world;
+    }
+
+    /**
+     * 表示している時刻(エポックミリ秒)
+     */
+    public long getNowMillis()
+    {
+        return nowMillis;
+    }
+
+    public ZoneId getZone()
+    {
+        return zone;
+    }
+
+    /**
+     * カウントダウンの目標時刻(エポックミリ秒)
+     */
+    public long getTargetMillis()
+    {
+        return targetMillis;
+    }
+
+    /**
+     * カウントダウンの目標までの秒数。過ぎていれば0以下
+     */
+    public long getUntilSeconds()
+    {
+        return untilSeconds;
+    }
+
+    /**
+     * 目標を過ぎたかどうか
+     */
+    public boolean isPassed()
+    {
+        return untilSeconds < 0;
+    }
+
+    /**
+     * 経過時間の秒数。目標を過ぎる前は起点から、過ぎた後は目標からの秒数
+     */
+    public long getSinceSeconds()
+    {
+        return sinceSeconds;
+    }
+
+    /**
+     * 次の目標までの秒数
+     */
+    public long getNextSeconds()
+    {
+        return nextSeconds;
+    }
+
+    public String getServer()
+    {
+        return server;
+    }
+
+    public String getAppStatus()
+    {
+        return appStatus;
+    }
+
+    /**
+     * 時刻を再取得するまでの秒数。再取得の予定がなければ-1
+     */
+    public int getResyncSeconds()
+    {
+        return resyncSeconds;
+    }
+
+    public String getErrorTime()
+    {
+        return errorTime;
+    }
+
+    /**
+     * タイムゾーンごとの元日の状態。使っていなければnull
+     */
+    public WorldNewYearQueue.Status getWorld()
+    {
+        return world;
+    }
+}
@@ -0,0 +1,86 @@
+package net.hinyari.gohancountdown;
+
+/**
+ * tickの起床遅れを集計する
+ * 書き込みはスケジューラのスレッドだけで、読み出しは任意のスレッドから行える
+ */
+public class TickStatistics
+{
+    // これ以上遅れて起きたtickを遅延として数える(ms)
+    public static final long LATE_THRESHOLD = 20;
+
+    private volatile long count;
+    private volatile long lateCount;
+    private volatile long maxLateness;
+    private volatile long totalLateness;
+    private volatile long lastLateness;
+    // RFC 3550と同じ方法で平滑化したジッタ(ms)
+    private volatile double jitter;
+    private final LatencyHistogram histogram = new LatencyHistogram();
+
+    /**
+     * 秒の境目からどれだけ遅れて起きたかを記録する
+     */
+    public void record(long lateness)
+    {
+        if (count > 0) {
+            jitter += (Math.abs(lateness - lastLateness) - jitter) / 16.0;
+        }
+        lastLateness = lateness;
+        histogram.record(lateness);
+        totalLateness += lateness;
+        if (lateness > maxLateness) {
+            maxLateness = lateness;
+        }
+        if (lateness >= LATE_THRESHOLD) {
+            lateCount++;
+        }
+        count++;
+    }
+
+    public long getCount()
+    {
+        return count;
+    }
+
+    public long getLateCount()
+    {
+        return lateCount;
+    }
+
+    public long getMaxLateness()
+    {
+        return maxLateness;
+    }
+
+    public double getMeanLateness()
+    {
+        long n = count;
+        return n == 0 ? 0 : (double) totalLateness / n;
+    }
+
+    public long getLastLateness()
+    {
+        return lastLateness;
+    }
+
+    public double getJitter()
+    {
+        return jitter;
+    }
+
+    /**
+     * 起床遅れの分布
+     */
+    public LatencyHistogram getHistogram()
+    {
+        return histogram;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("ticks=%d late=%d mean=%.1fms max=%dms jitter=%.1fms",
+                count, lateCount, getMeanLateness(), maxLateness, jitter);
+    }
+}
@@ -0,0 +1,73 @@
+package net.hinyari.gohancountdown;
+
+/**
+ * 時刻源から取得した1回分の測定結果
+ */
+public final class TimeSample
+{
+    private final String server;
+    private final long offset;
+    private final long delay;
+    private final long localTimeMillis;
+    private final long localNanos;
+
+    public TimeSample(String server, long offset, long delay, long localTimeMillis)
+    {
+        this(server, offset, delay, localTimeMillis, System.nanoTime());
+    }
+
+    /**
+     * @param server          取得先
+     * @param offset          時刻源の時刻 - システム時刻(ms)
+     * @param delay           往復の通信遅延(ms)
+     * @param localTimeMillis 測定したシステム時刻
+     * @param localNanos      測定した時のSystem.nanoTime()
+     */
+    public TimeSample(String server, long offset, long delay, long localTimeMillis, long localNanos)
+    {
+        this.server = server;
+        this.offset = offset;
+        this.delay = delay;
+        this.localTimeMillis = localTimeMillis;
+        this.localNanos = localNanos;
+    }
+
+    public String getServer()
+    {
+        return server;
+    }
+
+    public long getOffset()
+    {
+        return offset;
+    }
+
+    public long getDelay()
+    {
+        return delay;
+    }
+
+    public long getLocalTimeMillis()
+    {
+        return localTimeMillis;
+    }
+
+    public long getLocalNanos()
+    {
+        return localNanos;
+    }
+
+    /**
+     * 測定した時点の時刻源の時刻
+     */
+    public long getReferenceMillis()
+    {
+        return localTimeMillis + offset;
+    }
+
+    @Override
+    public String toString()
+    {
+        return server + " offset=" + offset + "ms delay=" + delay + "ms";
+    }
+}
@@ -0,0 +1,60 @@
+package net.hinyari.gohancountdown;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceLoader;
+
+/**
+ * 現在時刻の取得先
+ * 実装はMETA-INF/services/net.hinyari.gohancountdown.TimeSourceに書いておくとServiceLoaderで見つけられる
+ * 引数なしのコンストラクタで作るので、設定はシステムプロパティから読む
+ */
+public interface TimeSource
+{
+    // 設定がなければこの順に試す
+    String DEFAULT_ORDER = "sntp,jst,httpdate";
+
+    /**
+     * gohancountdown.timesources で指定する名前
+     */
+    String getName();
+
+    /**
+     * 時刻を1回取得する
+     *
+     * @throws IOException 取得できなかった場合
+     */
+    TimeSample query() throws IOException;
+
+    /**
+     * -Dgohancountdown.timesources=sntp,httpdate のように指定した順に時刻源を並べる
+     * 名前はServiceLoaderで見つかった実装のgetName()と照らし合わせる
+     *
+     * @throws IllegalArgumentException 見つからない名前が含まれている場合
+     */
+    static List<TimeSource> fromSystemProperties()
+    {
+        Map<String, TimeSource> available = new HashMap<>();
+        for (TimeSource source : ServiceLoader.load(TimeSource.class)) {
+            available.putIfAbsent(source.getName(), source);
+        }
+        List<TimeSource> sources = new ArrayList<>();
+        for (String name : System.getProperty("gohancountdown.timesources", DEFAULT_ORDER).split(",")) {
+            if (name.trim().isEmpty()) {
+                continue;
+            }
+            TimeSource source = available.get(name.trim());
+            if (source == null) {
+                throw new IllegalArgumentException("不明な時刻源です: " + name.trim() + " " + available.keySet());
+            }
+            sources.add(source);
+        }
+        if (sources.isEmpty()) {
+            throw new IllegalArgumentException("gohancountdown.timesources に時刻源を指定してください");
+        }
+        return sources;
+    }
+}
@@ -0,0 +1,289 @@
+package net.hinyari.gohancountdown;
+
+import java.util.function.Consumer;
+
+/**
+ * 階層型のタイミングホイール
+ * 1段64スロットを6段重ね、tickMillisが10msなら約21年先までを表す。それより先はあふれたものとして別に持つ
+ * 段とスロットは期限と現在のtickのビットの違いから直接求めるので、登録と取り消しはO(1)
+ * 上の段のスロットは下の段が一周した時に下ろし直す。1つの予定が下ろされるのは最大で段の数だけなので、発火も償却O(1)
+ * 同じtickの予定が発火する順番は決まっていない
+ * スレッドセーフではない。使う側で1つのスレッドから触るか同期すること
+ */
+public class TimingWheel<E>
+{
+    private static final int BITS = 6;
+    private static final int SLOTS = 1 << BITS;
+    private static final int MASK = SLOTS - 1;
+    private static final int LEVELS = 6;
+    // どのスロットにも入っていない
+    private static final int NONE = -1;
+    // 範囲外の予定の一覧に入っている
+    private static final int OVERFLOW = -2;
+    // 発火するためにスロットから外した
+    private static final int FIRING = -3;
+
+    /**
+     * 登録した予定。取り消しに使う
+     */
+    public static final class Timeout<E>
+    {
+        private final E event;
+        private final long deadline;
+        // 置き場所を決めるのに使うtick。期限を切り上げたもの
+        private final long tick;
+        private int bucket = NONE;
+        private Timeout<E> prev;
+        private Timeout<E> next;
+
+        Timeout(E event, long deadline, long tick)
+        {
+            this.event = event;
+            this.deadline = deadline;
+            this.tick = tick;
+        }
+
+        public E getEvent()
+        {
+            return event;
+        }
+
+        public long getDeadline()
+        {
+            return deadline;
+        }
+
+        /**
+         * まだ発火も取り消しもされていなければtrue
+         */
+        public boolean isPending()
+        {
+            return bucket != NONE;
+        }
+    }
+
+    private final long tickMillis;
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private final Timeout<E>[] heads = new Timeout[LEVELS * SLOTS];
+    // 段ごとの、予定が入っているスロットのビット
+    private final long[] occupied = new long[LEVELS];
+    private Timeout<E> overflow;
+    private long currentTick;
+    private int size;
+
+    /**
+     * @param tickMillis 分解能(ms)。予定はこの単位に切り上げて発火する
+     * @param nowMillis  現在時刻
+     */
+    public TimingWheel(long tickMillis, long nowMillis)
+    {
+        if (tickMillis <= 0) {
+            throw new IllegalArgumentException("tickMillis <= 0");
+        }
+        this.tickMillis = tickMillis;
+        this.currentTick = Math.floorDiv(nowMillis, tickMillis);
+    }
+
+    public long getTickMillis()
+    {
+        return tickMillis;
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * 予定を登録する。期限を過ぎていれば次のadvanceで発火する
+     */
+    public Timeout<E> schedule(long deadline, E event)
+    {
+        long tick = Math.floorDiv(deadline, tickMillis) + (Math.floorMod(deadline, tickMillis) == 0 ? 0 : 1);
+        // 今のtickのスロットは処理済みなので、過ぎた予定は次のtickに入れる
+        Timeout<E> timeout = new Timeout<>(event, deadline, Math.max(tick, currentTick + 1));
+        place(timeout);
+        size++;
+        return timeout;
+    }
+
+    /**
+     * @return 取り消せた場合true。発火済みか取り消し済みならfalse
+     */
+    public boolean cancel(Timeout<E> timeout)
+    {
+        int bucket = timeout.bucket;
+        if (bucket == NONE) {
+            return false;
+        }
+        size--;
+        timeout.bucket = NONE;
+        if (bucket == FIRING) {
+            // 発火中の一覧からはadvanceが外す
+            return true;
+        }
+        if (timeout.prev != null) {
+            timeout.prev.next = timeout.next;
+        } else if (bucket == OVERFLOW) {
+            overflow = timeout.next;
+        } else {
+            heads[bucket] = timeout.next;
+            if (timeout.next == null) {
+                occupied[bucket >>> BITS] &= ~(1L << (bucket & MASK));
+            }
+        }
+        if (timeout.next != null) {
+            timeout.next.prev = timeout.prev;
+        }
+        timeout.prev = null;
+        timeout.next = null;
+        return true;
+    }
+
+    /**
+     * nowMillisまでに期限が来た予定を発火する
+     * 予定のない区間はスロットのビットを見て次に何かあるtickまで飛ばすので、長く呼ばなかった後でも軽い
+     *
+     * @param fire 発火した予定を受け取る。中から登録や取り消しをしてもよい
+     * @return 発火した数
+     */
+    public int advance(long nowMillis, Consumer<Timeout<E>> fire)
+    {
+        long target = Math.floorDiv(nowMillis, tickMillis);
+        int fired = 0;
+        while (currentTick < target) {
+            long next = nextTick();
+            if (next > target) {
+                currentTick = target;
+                break;
+            }
+            currentTick = next;
+            if ((currentTick & MASK) == 0) {
+                cascade();
+            }
+            int slot = (int) (currentTick & MASK);
+            if ((occupied[0] & (1L << slot)) != 0) {
+                fired += fire(slot, fire);
+            }
+        }
+        return fired;
+    }
+
+    /**
+     * 次にadvanceを呼ぶべき時刻。下の段へ下ろす時刻も含むので、実際の期限より早いことがある
+     *
+     * @return 予定がなければLong.MAX_VALUE
+     */
+    public long nextWakeup()
+    {
+        long next = nextTick();
+        return next == Long.MAX_VALUE ? next : next * tickMillis;
+    }
+
+    /**
+     * 次に発火か下ろし直しのあるtick
+     * 各段のスロットには今のtickより先のものしか入っていないので、下の段から見て最初に見つかったものが一番早い
+     */
+    private long nextTick()
+    {
+        for (int level = 0; level < LEVELS; level++) {
+            long bits = occupied[level];
+            if (bits != 0) {
+                int shift = BITS * level;
+                long base = currentTick >>> (shift + BITS) << (shift + BITS);
+                return base | ((long) Long.numberOfTrailingZeros(bits) << shift);
+            }
+        }
+        if (overflow != null) {
+            int shift = BITS * LEVELS;
+            return (currentTick >>> shift) + 1 << shift;
+        }
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * 周の境目に来た段のスロットを下の段へ下ろし直す。上の段から順に行う
+     */
+    private void cascade()
+    {
+        // 下位のビットが0の桁数から、境目に来た一番上の段が分かる
+        int top = Long.numberOfTrailingZeros(currentTick) / BITS;
+        if (top >= LEVELS && overflow != null) {
+            Timeout<E> t = overflow;
+            overflow = null;
+            replace(t);
+        }
+        for (int level = Math.min(top, LEVELS - 1); level >= 1; level--) {
+            int bucket = (level << BITS) | (int) ((currentTick >>> (BITS * level)) & MASK);
+            Timeout<E> t = heads[bucket];
+            if (t != null) {
+                heads[bucket] = null;
+                occupied[level] &= ~(1L << (bucket & MASK));
+                replace(t);
+            }
+        }
+    }
+
+    private void replace(Timeout<E> t)
+    {
+        while (t != null) {
+            Timeout<E> next = t.next;
+            t.prev = null;
+            t.next = null;
+            place(t);
+            t = next;
+        }
+    }
+
+    private int fire(int slot, Consumer<Timeout<E>> fire)
+    {
+        Timeout<E> t = heads[slot];
+        heads[slot] = null;
+        occupied[0] &= ~(1L << slot);
+        for (Timeout<E> f = t; f != null; f = f.next) {
+            f.bucket = FIRING;
+        }
+        int fired = 0;
+        while (t != null) {
+            Timeout<E> next = t.next;
+            t.prev = null;
+            t.next = null;
+            // 先に発火した予定の中で取り消されたものは飛ばす
+            if (t.bucket == FIRING) {
+                t.bucket = NONE;
+                size--;
+                fired++;
+                fire.accept(t);
+            }
+            t = next;
+        }
+        return fired;
+    }
+
+    private void place(Timeout<E> t)
+    {
+        long diff = t.tick ^ currentTick;
+        int level = diff == 0 ? 0 : (63 - Long.numberOfLeadingZeros(diff)) / BITS;
+        if (level >= LEVELS) {
+            t.bucket = OVERFLOW;
+            link(t, overflow);
+            overflow = t;
+            return;
+        }
+        int slot = (int) ((t.tick >>> (BITS * level)) & MASK);
+        int bucket = (level << BITS) | slot;
+        t.bucket = bucket;
+        link(t, heads[bucket]);
+        heads[bucket] = t;
+        occupied[level] |= 1L << slot;
+    }
+
+    private static <E> void link(Timeout<E> t, Timeout<E> head)
+    {
+        t.next = head;
+        t.prev = null;
+        if (head != null) {
+            head.prev = t;
+        }
+    }
+}
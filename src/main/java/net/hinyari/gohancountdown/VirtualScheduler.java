@@ -0,0 +1,277 @@
+package net.hinyari.gohancountdown;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RunnableScheduledFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 仮想の時計で動くScheduledExecutorService
+ * タスクはrunUntilを呼んだスレッドで時刻順に実行し、時計は次のタスクの時刻まで待たずに進める
+ * 1年分のtickを数秒で流すシミュレーションに使う。時計はcurrentTimeMillisとnanoTimeで読む
+ */
+public class VirtualScheduler extends AbstractExecutorService implements ScheduledExecutorService
+{
+    private final class Task<V> implements RunnableScheduledFuture<V>
+    {
+        private final Callable<V> callable;
+        // 同じ時刻のタスクは登録した順に実行する
+        private long seq;
+        // 正なら一定間隔、負なら実行後からの間隔、0なら1回だけ
+        private final long period;
+        private long time;
+        private boolean done;
+        private boolean cancelled;
+        private V result;
+        private Throwable failure;
+
+        Task(Callable<V> callable, long time, long period)
+        {
+            this.callable = callable;
+            this.time = time;
+            this.period = period;
+        }
+
+        @Override
+        public void run()
+        {
+            if (done) {
+                return;
+            }
+            try {
+                V value = callable.call();
+                if (period == 0) {
+                    result = value;
+                    done = true;
+                } else {
+                    time = period > 0 ? time + period : now - period;
+                    enqueue(this);
+                }
+            } catch (Throwable e) {
+                failure = e;
+                done = true;
+            }
+        }
+
+        @Override
+        public boolean isPeriodic()
+        {
+            return period != 0;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit)
+        {
+            return unit.convert(time - now, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed o)
+        {
+            if (o instanceof VirtualScheduler.Task) {
+                Task<?> t = (Task<?>) o;
+                int c = Long.compare(time, t.time);
+                return c != 0 ? c : Long.compare(seq, t.seq);
+            }
+            return Long.compare(getDelay(TimeUnit.MILLISECONDS), o.getDelay(TimeUnit.MILLISECONDS));
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning)
+        {
+            if (done) {
+                return false;
+            }
+            cancelled = true;
+            done = true;
+            synchronized (VirtualScheduler.this) {
+                queue.remove(this);
+            }
+            return true;
+        }
+
+        @Override
+        public boolean isCancelled()
+        {
+            return cancelled;
+        }
+
+        @Override
+        public boolean isDone()
+        {
+            return done;
+        }
+
+        @Override
+        public V get() throws ExecutionException
+        {
+            if (cancelled) {
+                throw new CancellationException();
+            }
+            if (!done) {
+                // 時計はrunUntilでしか進まないので、待っても終わらない
+                throw new IllegalStateException("まだ実行されていません");
+            }
+            if (failure != null) {
+                throw new ExecutionException(failure);
+            }
+            return result;
+        }
+
+        @Override
+        public V get(long timeout, TimeUnit unit) throws ExecutionException
+        {
+            return get();
+        }
+    }
+
+    private final PriorityQueue<Task<?>> queue = new PriorityQueue<>();
+    private volatile long now;
+    private long sequence;
+    private boolean shutdown;
+
+    /**
+     * @param startMillis 仮想の時計の最初の時刻(エポックミリ秒)
+     */
+    public VirtualScheduler(long startMillis)
+    {
+        this.now = startMillis;
+    }
+
+    public long currentTimeMillis()
+    {
+        return now;
+    }
+
+    /**
+     * System.nanoTime()の代わりに使う単調時計。currentTimeMillisと同じ仮想の時計をナノ秒で返す
+     */
+    public long nanoTime()
+    {
+        return now * 1_000_000L;
+    }
+
+    /**
+     * timeまでに実行されるタスクを時刻順にすべて実行し、時計をtimeに進める
+     *
+     * @return 実行したタスクの数
+     */
+    public long runUntil(long time)
+    {
+        long count = 0;
+        while (true) {
+            Task<?> task;
+            synchronized (this) {
+                task = queue.peek();
+                if (task == null || task.time > time) {
+                    break;
+                }
+                queue.poll();
+                now = Math.max(now, task.time);
+            }
+            task.run();
+            count++;
+        }
+        now = Math.max(now, time);
+        return count;
+    }
+
+    /**
+     * 待っているタスクの数
+     */
+    public synchronized int getQueueSize()
+    {
+        return queue.size();
+    }
+
+    @Override
+    public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit)
+    {
+        return schedule(Executors.callable(command), delay, unit);
+    }
+
+    @Override
+    public <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit)
+    {
+        return enqueue(new Task<>(callable, now + Math.max(0, unit.toMillis(delay)), 0));
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleAtFixedRate(Runnable command, long initialDelay, long period, TimeUnit unit)
+    {
+        if (period <= 0) {
+            throw new IllegalArgumentException("period <= 0");
+        }
+        return enqueue(new Task<>(Executors.callable(command), now + unit.toMillis(initialDelay),
+                Math.max(1, unit.toMillis(period))));
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command, long initialDelay, long delay, TimeUnit unit)
+    {
+        if (delay <= 0) {
+            throw new IllegalArgumentException("delay <= 0");
+        }
+        return enqueue(new Task<>(Executors.callable(command), now + unit.toMillis(initialDelay),
+                -Math.max(1, unit.toMillis(delay))));
+    }
+
+    @Override
+    public void execute(Runnable command)
+    {
+        schedule(command, 0, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized <V> Task<V> enqueue(Task<V> task)
+    {
+        if (shutdown) {
+            throw new RejectedExecutionException("shutdown");
+        }
+        task.seq = sequence++;
+        queue.add(task);
+        return task;
+    }
+
+    @Override
+    public synchronized void shutdown()
+    {
+        shutdown = true;
+    }
+
+    @Override
+    public synchronized List<Runnable> shutdownNow()
+    {
+        shutdown = true;
+        List<Runnable> pending = new ArrayList<>(queue);
+        queue.clear();
+        return pending;
+    }
+
+    @Override
+    public synchronized boolean isShutdown()
+    {
+        return shutdown;
+    }
+
+    @Override
+    public synchronized boolean isTerminated()
+    {
+        return shutdown && queue.isEmpty();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit)
+    {
+        return isTerminated();
+    }
+}
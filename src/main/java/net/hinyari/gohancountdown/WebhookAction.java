@@ -0,0 +1,90 @@
+package net.hinyari.gohancountdown;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+
+/**
+ * 予定の時刻が来たことをJSONでPOSTする
+ * 送信は専用のスレッドで行うので、相手が遅くても予定の発火は遅れない
+ */
+public class WebhookAction implements Consumer<CountDownEvent>
+{
+    private static final AsyncLogger logger = AsyncLogger.getLogger(WebhookAction.class);
+
+    public static final int DEFAULT_TIMEOUT = 2000;
+
+    private final URL url;
+    private final int timeout;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r ->
+    {
+        Thread thread = new Thread(r, "WebhookAction");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public WebhookAction(URL url, int timeout)
+    {
+        this.url = url;
+        this.timeout = timeout;
+    }
+
+    @Override
+    public void accept(CountDownEvent event)
+    {
+        executor.execute(() -> post(event));
+    }
+
+    public URL getUrl()
+    {
+        return url;
+    }
+
+    private void post(CountDownEvent event)
+    {
+        byte[] body = encode(event);
+        try {
+            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+            connection.setConnectTimeout(timeout);
+            connection.setReadTimeout(timeout);
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", "application/json; charset=utf-8");
+            connection.setFixedLengthStreamingMode(body.length);
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(body);
+            }
+            int status = connection.getResponseCode();
+            // 接続を使い回せるように本文を読み切る
+            try (InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+                if (in != null) {
+                    while (in.read() >= 0) {
+                        // 読み捨てる
+                    }
+                }
+            }
+            if (status >= 300) {
+                logger.log(Level.WARNING, "通知が受け付けられませんでした " + status + " ", event);
+            }
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "通知を送れませんでした " + url, e);
+        }
+    }
+
+    static byte[] encode(CountDownEvent event)
+    {
+        StringBuilder sb = new StringBuilder(128);
+        sb.append("{\"name\":");
+        SnapshotJson.appendString(sb, event.getName());
+        sb.append(",\"time\":").append(event.getTimeMillis());
+        sb.append('}');
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
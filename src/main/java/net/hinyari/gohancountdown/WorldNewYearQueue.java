@@ -0,0 +1,272 @@
+package net.hinyari.gohancountdown;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeSet;
+import java.util.logging.Level;
+
+/**
+ * タイムゾーンごとの次の元日の時刻を、エポックミリ秒の順に並べたキュー
+ * 最初にすべてのタイムゾーンの次の元日をZoneRulesから求めておき、tickでは先頭を見るだけにする
+ * 元日を迎えたタイムゾーンだけを取り出し、その翌年の元日を求めて入れ直す
+ * 迎えたタイムゾーンがなければadvanceはO(1)、あれば1つにつきO(log n)
+ */
+public class WorldNewYearQueue
+{
+    private static final AsyncLogger logger = AsyncLogger.getLogger(WorldNewYearQueue.class);
+
+    private static final class Entry implements Comparable<Entry>
+    {
+        final ZoneId zone;
+        // 次に迎える元日の年とその時刻
+        int year;
+        long targetMillis;
+
+        Entry(ZoneId zone)
+        {
+            this.zone = zone;
+        }
+
+        void resolve(int year)
+        {
+            this.year = year;
+            this.targetMillis = newYear(zone, year);
+        }
+
+        @Override
+        public int compareTo(Entry o)
+        {
+            int c = Long.compare(targetMillis, o.targetMillis);
+            return c != 0 ? c : zone.getId().compareTo(o.zone.getId());
+        }
+    }
+
+    /**
+     * ある時点のキューの状態
+     * 元日を迎えたタイムゾーンがあった時だけ作り直すので、tickごとにはそのまま渡せる
+     */
+    public static final class Status
+    {
+        private final ZoneId nextZone;
+        private final long nextMillis;
+        private final int nextYear;
+        private final int nextCount;
+        private final ZoneId lastZone;
+        private final int lastYear;
+        private final int lastCount;
+
+        Status(ZoneId nextZone, long nextMillis, int nextYear, int nextCount,
+               ZoneId lastZone, int lastYear, int lastCount)
+        {
+            this.nextZone = nextZone;
+            this.nextMillis = nextMillis;
+            this.nextYear = nextYear;
+            this.nextCount = nextCount;
+            this.lastZone = lastZone;
+            this.lastYear = lastYear;
+            this.lastCount = lastCount;
+        }
+
+        /**
+         * 次に元日を迎えるタイムゾーン。同時に迎えるものが複数あれば名前順で最初のもの
+         */
+        public ZoneId getNextZone()
+        {
+            return nextZone;
+        }
+
+        public long getNextMillis()
+        {
+            return nextMillis;
+        }
+
+        public int getNextYear()
+        {
+            return nextYear;
+        }
+
+        /**
+         * 次の時刻に同時に元日を迎えるタイムゾーンの数
+         */
+        public int getNextCount()
+        {
+            return nextCount;
+        }
+
+        /**
+         * 最後に元日を迎えたタイムゾーン。まだなければnull
+         */
+        public ZoneId getLastZone()
+        {
+            return lastZone;
+        }
+
+        public int getLastYear()
+        {
+            return lastYear;
+        }
+
+        public int getLastCount()
+        {
+            return lastCount;
+        }
+    }
+
+    private final List<Entry> entries = new ArrayList<>();
+    private final PriorityQueue<Entry> queue;
+    // 元日の時刻ごとのタイムゾーンの数。同時に迎える数を数えるために使う
+    private final Map<Long, Integer> counts = new HashMap<>();
+    private long lastNow = Long.MIN_VALUE;
+    private Status status;
+
+    /**
+     * @param zones     対象のタイムゾーン
+     * @param nowMillis 現在時刻。これより後の元日から並べる
+     */
+    public WorldNewYearQueue(Collection<ZoneId> zones, long nowMillis)
+    {
+        if (zones.isEmpty()) {
+            throw new IllegalArgumentException("zones is empty");
+        }
+        for (ZoneId zone : zones) {
+            entries.add(new Entry(zone));
+        }
+        queue = new PriorityQueue<>(entries.size());
+        rebuild(nowMillis);
+    }
+
+    /**
+     * -Dgohancountdown.world=true ですべてのタイムゾーンを、
+     * -Dgohancountdown.world.zones=Asia/Tokyo,Europe/London,... で指定したタイムゾーンを対象にする
+     *
+     * @return 使わない設定ならnull
+     */
+    public static WorldNewYearQueue fromSystemProperties(long nowMillis)
+    {
+        if (!isEnabled()) {
+            return null;
+        }
+        String spec = System.getProperty("gohancountdown.world.zones", "all").trim();
+        Collection<ZoneId> zones = new TreeSet<>((a, b) -> a.getId().compareTo(b.getId()));
+        if (spec.equals("all")) {
+            for (String id : ZoneId.getAvailableZoneIds()) {
+                zones.add(ZoneId.of(id));
+            }
+        } else {
+            for (String id : spec.split(",")) {
+                if (!id.trim().isEmpty()) {
+                    zones.add(ZoneId.of(id.trim()));
+                }
+            }
+        }
+        return new WorldNewYearQueue(zones, nowMillis);
+    }
+
+    public static boolean isEnabled()
+    {
+        return Boolean.getBoolean("gohancountdown.world") || System.getProperty("gohancountdown.world.zones") != null;
+    }
+
+    /**
+     * 元日を迎えたタイムゾーンを取り出して翌年の元日で入れ直す
+     *
+     * @return 今回元日を迎えたタイムゾーンの数
+     */
+    public int advance(long nowMillis)
+    {
+        if (nowMillis < lastNow) {
+            // 時計が巻き戻ったら、取り出し済みの元日がまた先になっているので並べ直す
+            rebuild(nowMillis);
+            return 0;
+        }
+        lastNow = nowMillis;
+        int total = 0;
+        int arrived = 0;
+        long lastMillis = Long.MIN_VALUE;
+        ZoneId lastZone = null;
+        int lastYear = 0;
+        Entry head;
+        while ((head = queue.peek()) != null && head.targetMillis <= nowMillis) {
+            queue.poll();
+            if (head.targetMillis != lastMillis) {
+                // 同時に迎えた中で名前順で最初のものを代表にする
+                lastMillis = head.targetMillis;
+                lastZone = head.zone;
+                lastYear = head.year;
+                arrived = 0;
+            }
+            arrived++;
+            total++;
+            remove(head);
+            head.resolve(head.year + 1);
+            add(head);
+        }
+        if (total > 0) {
+            Status s = createStatus(lastZone, lastYear, arrived);
+            status = s;
+            logger.log(Level.INFO, () -> describeLast(s));
+        }
+        return total;
+    }
+
+    public Status getStatus()
+    {
+        return status;
+    }
+
+    public int size()
+    {
+        return entries.size();
+    }
+
+    private void rebuild(long nowMillis)
+    {
+        queue.clear();
+        counts.clear();
+        for (Entry entry : entries) {
+            entry.resolve(Instant.ofEpochMilli(nowMillis).atZone(entry.zone).getYear() + 1);
+            add(entry);
+        }
+        lastNow = nowMillis;
+        status = createStatus(status == null ? null : status.lastZone, status == null ? 0 : status.lastYear,
+                status == null ? 0 : status.lastCount);
+    }
+
+    private void add(Entry entry)
+    {
+        queue.add(entry);
+        counts.merge(entry.targetMillis, 1, Integer::sum);
+    }
+
+    private void remove(Entry entry)
+    {
+        counts.computeIfPresent(entry.targetMillis, (k, v) -> v > 1 ? v - 1 : null);
+    }
+
+    private Status createStatus(ZoneId lastZone, int lastYear, int lastCount)
+    {
+        Entry head = queue.peek();
+        return new Status(head.zone, head.targetMillis, head.year, counts.get(head.targetMillis),
+                lastZone, lastYear, lastCount);
+    }
+
+    private static String describeLast(Status s)
+    {
+        return s.lastZone + (s.lastCount > 1 ? " など" + s.lastCount + "地域" : "") + "が" + s.lastYear + "年を迎えました";
+    }
+
+    /**
+     * そのタイムゾーンでのyear年1月1日0時。0時が存在しない日はその日の最初の時刻
+     */
+    static long newYear(ZoneId zone, int year)
+    {
+        return LocalDate.of(year, 1, 1).atStartOfDay(zone).toInstant().toEpochMilli();
+    }
+}